@@ -0,0 +1,80 @@
+package schedulebuilder;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Solves the course selections of many students against one CourseCatalog.
+ * The catalog's conflict information is built once and shared by every
+ * student's TimetableSolver, and the students are solved concurrently on the
+ * common ForkJoin pool (one student per task, each searched sequentially:
+ * with thousands of students there is no need to split a single search).
+ *
+ * By default every valid timetable of each student is found; setTop() keeps
+ * only the best ones, which keeps the memory of a large batch in check.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class BatchScheduler {
+    
+    private final CourseCatalog catalog;
+    // Filters applied to every student
+    private Constraints constraints = new Constraints();
+    // Number of timetables kept per student (-1 for all), and how they rank
+    private int top = -1;
+    private boolean byHours = true;
+    
+    /**
+     * Creates a scheduler for selections of the provided catalog.
+     * @param catalog 
+     */
+    public BatchScheduler(CourseCatalog catalog) {
+        this.catalog = catalog;
+    }
+    
+    /**
+     * Sets the filters which are applied to every student's timetables.
+     * @param c 
+     */
+    public void setConstraints(Constraints c) {
+        this.constraints = c;
+    }
+    
+    /**
+     * Only keeps the k best timetables of each student, ranked by fewest
+     * total hours if byHours is true, fewest days otherwise. k = -1 (the
+     * default) keeps every timetable, unranked.
+     * @param k
+     * @param byHours 
+     */
+    public void setTop(int k, boolean byHours) {
+        this.top = k;
+        this.byHours = byHours;
+    }
+    
+    /**
+     * Solves one student's selection (catalog course numbers, see
+     * CourseCatalog.select()).
+     * @param selection
+     * @return 
+     */
+    public TimetableResults solve(int[] selection) {
+        TimetableSolver solver = new TimetableSolver(catalog, selection, constraints);
+        return top >= 0 ? solver.solveBest(top, byHours) : solver.solve();
+    }
+    
+    /**
+     * Solves every selection concurrently and hands the results to 'done' in
+     * the order of the selections. 'done' is called one result at a time,
+     * but not necessarily from the calling thread.
+     * @param selections
+     * @param done 
+     */
+    public void solveAll(List<int[]> selections, Consumer<TimetableResults> done) {
+        selections.parallelStream()
+                .map(this::solve)
+                .forEachOrdered(done);
+    }
+}
@@ -0,0 +1,218 @@
+package schedulebuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the hot paths of the program on synthetic course collections:
+ * generating timetables, filtering and sorting them, copying weeks and saving
+ * files. Each workload is made by a WorkloadGenerator with a fixed seed, so
+ * runs of different versions of the program measure exactly the same data.
+ *
+ * Usage: java schedulebuilder.Benchmark [options]
+ *
+ *   --courses N,N..  courses per collection (default: 6,8)
+ *   --options N,N..  options per course (default: 3,5)
+ *   --hours N        hours per class (default: 3)
+ *   --days N         days per week with classes, plus 0 or 1 (default: 1)
+ *   --density D      target conflict density, 0 to 1 (default: random)
+ *   --grid G         time grid, as DAYS,MINUTES,START-END (default: 5,60,7:00-20:00)
+ *   --seed N         seed of the generator (default: 42)
+ *   --time MS        length of each measurement (default: 1000)
+ *   --runs N         measurements per stage, after as many warm-up runs
+ *                    (default: 5)
+ *
+ * For every workload and stage it prints the throughput (operations per
+ * second, best run) and the bytes allocated per operation, which is read from
+ * the JVM's per-thread allocation counters.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class Benchmark {
+    
+    // One measured piece of work
+    private interface Stage {
+        long run() throws IOException;
+    }
+    
+    // Results of the stages end up here so the JIT can't remove the work
+    private static long sink;
+    
+    private static int hours = 3, days = 1, runs = 5;
+    private static long seed = 42, time = 1000;
+    private static double density = -1;
+    private static TimeGrid grid = TimeGrid.DEFAULT;
+    
+    public static void main(String[] args) throws IOException {
+        int[] courseCounts = {6, 8};
+        int[] optionCounts = {3, 5};
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--courses": courseCounts = parseList(args[i + 1]); break;
+                case "--options": optionCounts = parseList(args[i + 1]); break;
+                case "--hours": hours = Integer.parseInt(args[i + 1]); break;
+                case "--days": days = Integer.parseInt(args[i + 1]); break;
+                case "--density": density = Double.parseDouble(args[i + 1]); break;
+                case "--grid": grid = TimeGrid.parse(args[i + 1]); break;
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                case "--time": time = Long.parseLong(args[i + 1]); break;
+                case "--runs": runs = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        System.out.printf("%-8s %-8s %-16s %14s %14s %16s%n",
+                "courses", "options", "stage", "ops/s", "us/op", "bytes/op");
+        for (int courses : courseCounts) {
+            for (int options : optionCounts) {
+                run(courses, options);
+            }
+        }
+    }
+    
+    /**
+     * Generates one workload and measures every stage on it.
+     * @param courses
+     * @param options
+     * @throws IOException
+     */
+    private static void run(int courses, int options) throws IOException {
+        WorkloadGenerator g = new WorkloadGenerator();
+        g.setSeed(seed);
+        g.setCourses(courses);
+        g.setOptions(options);
+        g.setMeetings(days, days + 1);
+        g.setDuration(hours, hours);
+        g.setDensity(density);
+        g.setGrid(grid);
+        UserCollection u = g.generate();
+        TimetableResults results = new TimetableSolver(u).solve();
+        FilterIndex index = new FilterIndex(results);
+        Constraints loose = new Constraints(grid);
+        Constraints tight = new Constraints(grid);
+        tight.setMaxHoursPerDay(hours * 2);
+        tight.setMaxDays(grid.getDays() - 1);
+        int[] rows = new int[results.size()];
+        Path file = Files.createTempFile("benchmark", ".sch");
+        try {
+            String prefix = String.format("%-8d %-8d ", courses, options);
+            measure(prefix, "solve", () -> new TimetableSolver(u).solve().size());
+            measure(prefix, "solveParallel", () -> {
+                TimetableSolver s = new TimetableSolver(u);
+                s.setParallel(true);
+                return s.solve().size();
+            });
+            // Alternate between a tight and a loose filter, as when a slider
+            // is dragged back and forth
+            boolean[] flip = {false};
+            measure(prefix, "filter", () -> {
+                flip[0] = !flip[0];
+                index.update(flip[0] ? tight : loose, true);
+                return index.getVisibleCount();
+            });
+            measure(prefix, "sort", () -> {
+                for (int i = 0; i < rows.length; i++) {
+                    rows[i] = i;
+                }
+                Ranking.sort(rows, Ranking.keys(results, rows, rows.length, false), rows.length);
+                return rows.length == 0 ? 0 : rows[0];
+            });
+            measure(prefix, "weekCopy", () -> {
+                long n = 0;
+                for (Course c : u.getCourses()) {
+                    for (Week w : c.getWeekOptions()) {
+                        n += w.getCopy().getSlots()[0];
+                    }
+                }
+                return n;
+            });
+            measure(prefix, "save", () -> {
+                ScheduleFile.save(u, file);
+                return Files.size(file);
+            });
+            measure(prefix, "saveSerialized", () -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(u);
+                }
+                return bytes.size();
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    /**
+     * Runs one stage repeatedly for 'time' milliseconds, 'runs' times to warm
+     * up and 'runs' times measured, and prints the best measured run.
+     * @param prefix
+     * @param name
+     * @param stage
+     * @throws IOException
+     */
+    private static void measure(String prefix, String name, Stage stage) throws IOException {
+        double best = 0;
+        double bytesPerOp = 0;
+        for (int r = 0; r < runs * 2; r++) {
+            long ops = 0;
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            long end = start + time * 1000000;
+            long now;
+            do {
+                sink += stage.run();
+                ops++;
+                now = System.nanoTime();
+            } while (now < end);
+            bytes = allocatedBytes() - bytes;
+            double rate = ops * 1e9 / (now - start);
+            if (r >= runs && rate > best) {
+                best = rate;
+                bytesPerOp = (double)bytes / ops;
+            }
+        }
+        System.out.printf("%s%-16s %14.1f %14.2f %16.0f%n", prefix, name, best, 1e6 / best, bytesPerOp);
+    }
+    
+    /**
+     * Returns the bytes allocated so far by all live threads (the parallel
+     * solver allocates on the ForkJoin pool's threads), or 0 if the JVM can't
+     * tell.
+     * @return 
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean)mx;
+        long total = 0;
+        for (long b : sun.getThreadAllocatedBytes(mx.getAllThreadIds())) {
+            if (b > 0) {
+                total += b;
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Parses a comma-separated list of numbers.
+     * @param s
+     * @return 
+     */
+    private static int[] parseList(String s) {
+        String[] parts = s.split(",");
+        int[] list = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            list[i] = Integer.parseInt(parts[i].trim());
+        }
+        return list;
+    }
+}
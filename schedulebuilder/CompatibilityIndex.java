@@ -0,0 +1,376 @@
+package schedulebuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Precomputed conflict information for a list of courses, built once before a
+ * search. Every Week option of every course gets an id (the options of course
+ * 0 first, then course 1, and so on), and the index holds:
+ * 
+ * 1) for every option, the set of option ids of OTHER courses which do not
+ *    share a timeslot with it, and
+ * 2) for every timeslot, the set of option ids which hold a class in it
+ *    (worked out when first needed).
+ * 
+ * Sets of option ids are bitsets (long arrays). The solver keeps the set of
+ * options still compatible with everything chosen so far and narrows it down
+ * with a single AND per word, instead of comparing grids.
+ * 
+ * An index built for a whole CourseCatalog can be narrowed down to a few of
+ * its courses with subset(), which only copies bits and never looks at the
+ * timeslots again.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class CompatibilityIndex {
+    
+    // first[c] is the id of course c's first option; first[courses] = total
+    private final int[] first;
+    // Number of longs in one option bitset
+    private final int words;
+    // Options holding a class in each timeslot, indexed by the bit of the
+    // timeslot in the occupancy bitmaps (null for timeslots no option uses).
+    // Only built when first needed (the compatibility matrix of a fine grid
+    // is worked out without it).
+    private long[][] slotOptions;
+    // Options of other courses compatible with each option
+    private final long[][] compatible;
+    // Occupancy bitmap of each option
+    private final long[][] optionSlots;
+    
+    /**
+     * Builds the index for the provided courses.
+     * @param courses 
+     */
+    public CompatibilityIndex(ArrayList<Course> courses) {
+        first = new int[courses.size() + 1];
+        for (int c = 0; c < courses.size(); c++) {
+            first[c + 1] = first[c] + courses.get(c).getWeekOptions().size();
+        }
+        int total = first[courses.size()];
+        words = (total + 63) / 64;
+        optionSlots = new long[total][];
+        int[][] intervals = new int[total][];
+        long classes = 0, occupied = 0;
+        for (int c = 0; c < courses.size(); c++) {
+            ArrayList<Week> options = courses.get(c).getWeekOptions();
+            for (int o = 0; o < options.size(); o++) {
+                optionSlots[first[c] + o] = options.get(o).getSlots();
+                int[] iv = options.get(o).getIntervals();
+                intervals[first[c] + o] = iv;
+                for (int i = 0; i < iv.length; i += 3) {
+                    classes += 1;
+                    occupied += iv[i + 2] - iv[i + 1];
+                }
+            }
+        }
+        // Compatibility matrix: everything except the options with a class
+        // overlapping one of this option's classes, and the other options of
+        // the same course (only one option per course can be picked). Going
+        // by timeslot costs a pass over a row per timeslot of a class, the
+        // sweep about three passes per class however long it is, plus the
+        // sorting: the sweep wins once classes are several timeslots long,
+        // as on grids finer than an hour.
+        compatible = occupied > 8 * classes ? conflictsByInterval(intervals) : conflictsBySlot();
+        long[] all = allOptions();
+        for (int c = 0; c < courses.size(); c++) {
+            for (int id = first[c]; id < first[c + 1]; id++) {
+                long[] row = compatible[id];
+                for (int w = 0; w < words; w++) {
+                    row[w] = all[w] & ~row[w];
+                }
+                for (int other = first[c]; other < first[c + 1]; other++) {
+                    row[other >>> 6] &= ~(1L << other);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns, for every option, the set of options sharing a timeslot with
+     * it, from the options holding a class in each timeslot.
+     * @return 
+     */
+    private long[][] conflictsBySlot() {
+        buildSlotOptions();
+        long[][] rows = new long[optionSlots.length][];
+        for (int id = 0; id < optionSlots.length; id++) {
+            long[] row = new long[words];
+            long[] slots = optionSlots[id];
+            for (int i = 0; i < slots.length; i++) {
+                for (long s = slots[i]; s != 0; s &= s - 1) {
+                    long[] users = slotOptions[i * 64 + Long.numberOfTrailingZeros(s)];
+                    for (int w = 0; w < words; w++) {
+                        row[w] |= users[w];
+                    }
+                }
+            }
+            rows[id] = row;
+        }
+        return rows;
+    }
+    
+    /**
+     * Returns, for every option, the set of options with a class overlapping
+     * one of its classes (intervals[id] being the class intervals of option
+     * id, see Week.getIntervals()). The starts and ends of all intervals are
+     * sorted by day and time and swept in that order. An interval overlaps
+     * the intervals still running when it starts, and those starting before
+     * it ends; both are sets kept during the sweep, so they are added to its
+     * row a word (64 options) at a time.
+     * This takes time in the number of meetings rather than of timeslots, so
+     * a fine grid costs about as much as an hourly one.
+     * @param intervals
+     * @return 
+     */
+    private long[][] conflictsByInterval(int[][] intervals) {
+        int total = intervals.length;
+        // One long per start or end of an interval: the day, the time, 0 for
+        // an end or 1 for a start (so an interval ending when another starts
+        // does not overlap it), and the option id
+        long[] events = new long[32];
+        int count = 0;
+        for (int id = 0; id < total; id++) {
+            int[] iv = intervals[id];
+            for (int i = 0; i < iv.length; i += 3) {
+                if (count + 2 > events.length) {
+                    events = Arrays.copyOf(events, events.length * 2);
+                }
+                long day = (long)iv[i] << 56;
+                events[count++] = day | (long)iv[i + 1] << 40 | 1L << 32 | id;
+                events[count++] = day | (long)iv[i + 2] << 40 | id;
+            }
+        }
+        Arrays.sort(events, 0, count);
+        long[][] rows = new long[total][words];
+        // Options whose interval is running, options started so far today,
+        // and a copy of the latter taken when each running interval started
+        // (an option has at most one interval running at a time)
+        long[] running = new long[words];
+        long[] started = new long[words];
+        long[][] startedBefore = new long[total][];
+        ArrayDeque<long[]> spare = new ArrayDeque<>();
+        int day = -1;
+        for (int e = 0; e < count; e++) {
+            int id = (int)events[e];
+            long[] row = rows[id];
+            if ((int)(events[e] >>> 56) != day) {
+                // Every interval of the day before has ended
+                day = (int)(events[e] >>> 56);
+                Arrays.fill(started, 0);
+            }
+            if ((events[e] & 1L << 32) != 0) {
+                for (int w = 0; w < words; w++) {
+                    row[w] |= running[w];
+                }
+                if ((started[id >>> 6] & 1L << id) != 0) {
+                    // A second class of the option on this day: the running
+                    // intervals may have started after its first one, so
+                    // they would not see it start again
+                    for (int r = next(running, 0, total); r != -1; r = next(running, r + 1, total)) {
+                        rows[r][id >>> 6] |= 1L << id;
+                    }
+                }
+                long[] copy = spare.isEmpty() ? new long[words] : spare.pop();
+                System.arraycopy(started, 0, copy, 0, words);
+                startedBefore[id] = copy;
+                running[id >>> 6] |= 1L << id;
+                started[id >>> 6] |= 1L << id;
+            } else {
+                long[] before = startedBefore[id];
+                for (int w = 0; w < words; w++) {
+                    row[w] |= started[w] & ~before[w];
+                }
+                running[id >>> 6] &= ~(1L << id);
+                startedBefore[id] = null;
+                spare.push(before);
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * Creates an index from already worked out arrays (see subset()).
+     * @param first
+     * @param compatible 
+     * @param optionSlots
+     */
+    private CompatibilityIndex(int[] first, long[][] compatible, long[][] optionSlots) {
+        this.first = first;
+        this.words = (first[first.length - 1] + 63) / 64;
+        this.compatible = compatible;
+        this.optionSlots = optionSlots;
+    }
+    
+    /**
+     * Returns the index of only some of the courses, in the provided order:
+     * course c of the new index is course courses[c] of this one. The bits
+     * are copied from this index, which is much cheaper than building the
+     * index from the courses again.
+     * @param courses
+     * @return 
+     */
+    public CompatibilityIndex subset(int[] courses) {
+        int[] subFirst = new int[courses.length + 1];
+        for (int c = 0; c < courses.length; c++) {
+            subFirst[c + 1] = subFirst[c] + first[courses[c] + 1] - first[courses[c]];
+        }
+        int total = subFirst[courses.length];
+        int subWords = (total + 63) / 64;
+        // The id in this index of every option of the new one
+        int[] source = new int[total];
+        for (int c = 0; c < courses.length; c++) {
+            for (int id = subFirst[c]; id < subFirst[c + 1]; id++) {
+                source[id] = first[courses[c]] + id - subFirst[c];
+            }
+        }
+        long[][] subOptionSlots = new long[total][];
+        long[][] subCompatible = new long[total][subWords];
+        for (int a = 0; a < total; a++) {
+            subOptionSlots[a] = optionSlots[source[a]];
+            long[] row = compatible[source[a]];
+            for (int b = 0; b < total; b++) {
+                if ((row[source[b] >>> 6] & (1L << source[b])) != 0) {
+                    subCompatible[a][b >>> 6] |= 1L << b;
+                }
+            }
+        }
+        return new CompatibilityIndex(subFirst, subCompatible, subOptionSlots);
+    }
+    
+    /**
+     * Returns the number of longs in one option bitset.
+     * @return 
+     */
+    public int getWords() {
+        return words;
+    }
+    
+    /**
+     * Returns the id of one option of one course.
+     * @param course
+     * @param option
+     * @return 
+     */
+    public int getId(int course, int option) {
+        return first[course] + option;
+    }
+    
+    /**
+     * Returns the id of a course's first option. The course's options are the
+     * ids from getFirst(c) up to (not including) getFirst(c+1).
+     * @param course
+     * @return 
+     */
+    public int getFirst(int course) {
+        return first[course];
+    }
+    
+    /**
+     * Returns a bitset holding every option id.
+     * @return 
+     */
+    public long[] allOptions() {
+        long[] all = new long[words];
+        int total = first[first.length - 1];
+        for (int id = 0; id < total; id++) {
+            all[id >>> 6] |= 1L << id;
+        }
+        return all;
+    }
+    
+    /**
+     * Returns the options of other courses which do not conflict with the
+     * option with the provided id. This is the index's own array, so it must
+     * not be modified.
+     * @param id
+     * @return 
+     */
+    public long[] getCompatible(int id) {
+        return compatible[id];
+    }
+    
+    /**
+     * Returns the options holding a class at one timeslot, given as its bit
+     * in the occupancy bitmaps (see TimeGrid.bitOf()). This is the index's
+     * own array, so it must not be modified.
+     * @param bit
+     * @return 
+     */
+    public synchronized long[] getOptionsAt(int bit) {
+        if (slotOptions == null) {
+            buildSlotOptions();
+        }
+        long[] users = bit < slotOptions.length ? slotOptions[bit] : null;
+        return users != null ? users : new long[words];
+    }
+    
+    /**
+     * Builds the inverted index from the occupancy bitmaps of the options.
+     */
+    private void buildSlotOptions() {
+        int bits = optionSlots.length > 0 ? optionSlots[0].length * 64 : 0;
+        slotOptions = new long[bits][];
+        for (int id = 0; id < optionSlots.length; id++) {
+            long[] slots = optionSlots[id];
+            for (int i = 0; i < slots.length; i++) {
+                for (long s = slots[i]; s != 0; s &= s - 1) {
+                    int bit = i * 64 + Long.numberOfTrailingZeros(s);
+                    if (slotOptions[bit] == null) {
+                        slotOptions[bit] = new long[words];
+                    }
+                    slotOptions[bit][id >>> 6] |= 1L << id;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns true if two options (of different courses) can be taken together.
+     * @param a
+     * @param b
+     * @return 
+     */
+    public boolean isCompatible(int a, int b) {
+        return (compatible[a][b >>> 6] & (1L << b)) != 0;
+    }
+    
+    /**
+     * Returns the first id in 'set' which is at least 'from' and below 'end',
+     * or -1 if there is none.
+     * @param set
+     * @param from
+     * @param end
+     * @return 
+     */
+    public static int next(long[] set, int from, int end) {
+        if (from >= end) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = set[w] & (-1L << from);
+        while (word == 0) {
+            w += 1;
+            if (w * 64 >= end) {
+                return -1;
+            }
+            word = set[w];
+        }
+        int id = w * 64 + Long.numberOfTrailingZeros(word);
+        return id < end ? id : -1;
+    }
+    
+    /**
+     * Returns true if 'set' holds at least one option of the provided course.
+     * @param set
+     * @param course
+     * @return 
+     */
+    public boolean hasOption(long[] set, int course) {
+        return next(set, first[course], first[course + 1]) != -1;
+    }
+}
@@ -0,0 +1,207 @@
+package schedulebuilder;
+
+import java.util.Arrays;
+
+/**
+ * The filters a user can put on their timetables: which days classes are
+ * allowed on, the maximum length of a single day (hours, including the time
+ * between classes), and the maximum number of days with classes. All three
+ * only get harder to satisfy as more courses are added to a timetable, so the
+ * solver can check them on partial timetables and stop early.
+ * 
+ * The filters are made for one TimeGrid (the default grid unless another one
+ * is given). withGrid() carries them over to another grid.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class Constraints {
+    
+    // The grid the bitmaps being checked are laid out on
+    private final TimeGrid grid;
+    // Which days (Monday first) may hold classes. May have more entries than
+    // the grid has days; those only matter to withGrid().
+    private boolean[] allowedDays;
+    // Longest allowed day, in hours, and the same in timeslots
+    private int maxHoursPerDay;
+    private int maxSlotsPerDay;
+    // Most days per week which may hold classes
+    private int maxDays;
+    // Whether the two limits were set, or are still the whole grid
+    private boolean hoursSet = false, daysSet = false;
+    
+    /**
+     * Creates filters which allow everything, for the default grid.
+     */
+    public Constraints() {
+        this(TimeGrid.DEFAULT);
+    }
+    
+    /**
+     * Creates filters which allow everything, for the provided grid.
+     * @param g 
+     */
+    public Constraints(TimeGrid g) {
+        this.grid = g;
+        this.allowedDays = new boolean[g.getDays()];
+        Arrays.fill(allowedDays, true);
+        this.maxDays = g.getDays();
+        this.maxHoursPerDay = g.getHoursPerDay();
+        this.maxSlotsPerDay = g.getSlotsPerDay();
+    }
+    
+    /**
+     * Returns the same filters for another grid. Days the other grid has and
+     * no allowed day was set for are allowed, and limits which were never set
+     * stay at the whole week of the other grid. Returns this object if the
+     * grid is the same.
+     * @param g
+     * @return 
+     */
+    public Constraints withGrid(TimeGrid g) {
+        if (g.equals(grid)) {
+            return this;
+        }
+        Constraints c = new Constraints(g);
+        for (int d = 0; d < Math.min(allowedDays.length, g.getDays()); d++) {
+            c.allowedDays[d] = allowedDays[d];
+        }
+        if (hoursSet) {
+            c.setMaxHoursPerDay(maxHoursPerDay);
+        }
+        if (daysSet) {
+            c.setMaxDays(maxDays);
+        }
+        return c;
+    }
+    
+    /**
+     * Returns the grid these filters are made for.
+     * @return 
+     */
+    public TimeGrid getGrid() {
+        return grid;
+    }
+    
+    /**
+     * Sets which days may hold classes (one entry per day, Monday first).
+     * Days of the grid missing from the array are not allowed.
+     * @param days 
+     */
+    public void setAllowedDays(boolean[] days) {
+        this.allowedDays = Arrays.copyOf(days, Math.max(days.length, grid.getDays()));
+    }
+    
+    /**
+     * Returns whether classes are allowed on the provided day.
+     * @param day
+     * @return 
+     */
+    public boolean isDayAllowed(int day) {
+        return allowedDays[day];
+    }
+    
+    /**
+     * Sets the longest allowed day, in hours.
+     * @param h 
+     */
+    public void setMaxHoursPerDay(int h) {
+        this.maxHoursPerDay = h;
+        this.hoursSet = true;
+        this.maxSlotsPerDay = (int)Math.min(Integer.MAX_VALUE, (long)h * 60 / grid.getMinutesPerSlot());
+    }
+    
+    /**
+     * Returns the longest allowed day, in hours.
+     * @return 
+     */
+    public int getMaxHoursPerDay() {
+        return maxHoursPerDay;
+    }
+    
+    /**
+     * Returns the longest allowed day, in timeslots of the grid.
+     * @return 
+     */
+    public int getMaxSlotsPerDay() {
+        return maxSlotsPerDay;
+    }
+    
+    /**
+     * Sets the maximum number of days with classes.
+     * @param d 
+     */
+    public void setMaxDays(int d) {
+        this.maxDays = d;
+        this.daysSet = true;
+    }
+    
+    /**
+     * Returns the maximum number of days with classes.
+     * @return 
+     */
+    public int getMaxDays() {
+        return maxDays;
+    }
+    
+    /**
+     * Returns true if the longest-day or total-days filter can rule out a
+     * timetable which only uses allowed days.
+     * @return 
+     */
+    public boolean isLimited() {
+        return maxSlotsPerDay < grid.getSlotsPerDay() || maxDays < grid.getDays();
+    }
+    
+    /**
+     * Returns true if a (partial or complete) timetable with the provided
+     * occupancy bitmap satisfies every filter.
+     * @param slots
+     * @return 
+     */
+    public boolean allows(long[] slots) {
+        return onAllowedDays(slots) && withinLimits(slots);
+    }
+    
+    /**
+     * Same as allows(), but for a timetable whose metrics are already known.
+     * @param dayMask the days which hold classes (bit 0 = Monday)
+     * @param longestDay in timeslots
+     * @param totalDays
+     * @return 
+     */
+    public boolean allows(int dayMask, int longestDay, int totalDays) {
+        for (int d = 0; d < grid.getDays(); d++) {
+            if ((dayMask & (1 << d)) != 0 && !allowedDays[d]) {
+                return false;
+            }
+        }
+        return longestDay <= maxSlotsPerDay && totalDays <= maxDays;
+    }
+    
+    /**
+     * Checks only that the bitmap has no classes on a disallowed day.
+     * @param slots
+     * @return 
+     */
+    public boolean onAllowedDays(long[] slots) {
+        for (int d = 0; d < grid.getDays(); d++) {
+            if (!allowedDays[d] && grid.hasClasses(slots, d)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Checks only the longest-day and total-days limits. Used by the solver,
+     * which tests the days of each option separately before merging it.
+     * @param slots
+     * @return 
+     */
+    public boolean withinLimits(long[] slots) {
+        return grid.longestDay(slots) <= maxSlotsPerDay
+                && grid.totalDays(slots) <= maxDays;
+    }
+}
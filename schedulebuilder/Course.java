@@ -13,6 +13,9 @@ import java.util.ArrayList;
  */
 public class Course implements DataNode, Serializable {
     
+    // Pinned so that later changes to this class keep old .sch files readable
+    private static final long serialVersionUID = -2426607561600331197L;
+    
     //course name
     private String courseName;
     //arrayList of Week objects representing potential options (composition relationship)
@@ -0,0 +1,126 @@
+package schedulebuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A shared list of courses which many students pick from, such as the course
+ * offering of a term. Each course is kept once, by name, however many
+ * collections it came from. Everything the solver works out about the courses
+ * themselves (the CompatibilityIndex and the OptionGroups) is built once for
+ * the whole catalog, and a TimetableSolver for a student's selection only
+ * takes the subset it needs (see TimetableSolver(CourseCatalog, int[],
+ * Constraints)). The catalog is not modified after it is built, so any number
+ * of solvers can use it at the same time.
+ *
+ * Every course of a catalog must be laid out on the same TimeGrid.
+ *
+ * The CompatibilityIndex holds one bit per pair of options, so a catalog of
+ * T options takes about T*T/8 bytes (12 MB for 10000 options).
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class CourseCatalog {
+    
+    private final ArrayList<Course> courses = new ArrayList<>();
+    // Number of each course, by name
+    private final HashMap<String, Integer> byName = new HashMap<>();
+    private final TimeGrid grid;
+    private final CompatibilityIndex index;
+    private final OptionGroups groups;
+    
+    /**
+     * Builds the catalog of the courses of the provided collections. A course
+     * whose name was already seen is left out, so the first collection
+     * holding a course decides its week options.
+     * @param collections
+     * @throws IllegalArgumentException if the collections are laid out on
+     * different grids
+     */
+    public CourseCatalog(List<UserCollection> collections) {
+        grid = collections.isEmpty() ? TimeGrid.DEFAULT : collections.get(0).getGrid();
+        for (UserCollection u : collections) {
+            if (!u.getGrid().equals(grid)) {
+                throw new IllegalArgumentException("The collections use different grids ("
+                        + grid + " and " + u.getGrid() + ")");
+            }
+            for (Course c : u.getCourses()) {
+                if (!byName.containsKey(c.getName())) {
+                    byName.put(c.getName(), courses.size());
+                    courses.add(c);
+                }
+            }
+        }
+        index = new CompatibilityIndex(courses);
+        groups = new OptionGroups(courses);
+    }
+    
+    /**
+     * Returns the courses of the catalog. The list must not be modified.
+     * @return 
+     */
+    public ArrayList<Course> getCourses() {
+        return courses;
+    }
+    
+    /**
+     * Returns the grid the weeks of the courses are laid out on.
+     * @return 
+     */
+    public TimeGrid getGrid() {
+        return grid;
+    }
+    
+    /**
+     * Returns the number of the course with the provided name, or -1 if the
+     * catalog has no such course.
+     * @param name
+     * @return 
+     */
+    public int indexOf(String name) {
+        Integer c = byName.get(name);
+        return c == null ? -1 : c;
+    }
+    
+    /**
+     * Returns the numbers of the named courses, in the same order.
+     * @param names
+     * @return
+     * @throws IllegalArgumentException if a course is not in the catalog, or
+     * is named twice
+     */
+    public int[] select(List<String> names) {
+        int[] selection = new int[names.size()];
+        for (int i = 0; i < selection.length; i++) {
+            selection[i] = indexOf(names.get(i));
+            if (selection[i] < 0) {
+                throw new IllegalArgumentException("No course named " + names.get(i));
+            }
+            for (int j = 0; j < i; j++) {
+                if (selection[j] == selection[i]) {
+                    throw new IllegalArgumentException("Course " + names.get(i) + " is selected twice");
+                }
+            }
+        }
+        return selection;
+    }
+    
+    /**
+     * Returns the conflict information of the whole catalog.
+     * @return 
+     */
+    public CompatibilityIndex getIndex() {
+        return index;
+    }
+    
+    /**
+     * Returns the groups of identical options of the whole catalog.
+     * @return 
+     */
+    public OptionGroups getGroups() {
+        return groups;
+    }
+}
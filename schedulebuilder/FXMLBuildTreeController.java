@@ -1,14 +1,12 @@
 package schedulebuilder;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
@@ -18,6 +16,7 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.TreeItem;
@@ -47,6 +46,13 @@ public class FXMLBuildTreeController implements Initializable {
     private Label taskLabel;
     private File activeFile;
     public Stage parentWindow;
+    // Above this many timetables, ask before listing them all
+    private static final long WARN_COUNT = 1000000;
+    // From this many timetables, only the best ones are found
+    private static final long REFUSE_COUNT = 50000000;
+    // Timetables and counts of the collections viewed so far, shared by
+    // every window
+    private static final ResultCache RESULT_CACHE = new ResultCache();
     
     /**
      * JavaFX initialization.
@@ -178,6 +184,35 @@ public class FXMLBuildTreeController implements Initializable {
         }
     }
     
+    /**
+     * Asks for a new time grid (days, length of a timeslot, and the hours of a
+     * day) and moves every week of the collection to it.
+     */
+    @FXML
+    public void changeGrid() {
+        TextInputDialog dialog = new TextInputDialog(ucol.getGrid().toString());
+        dialog.setTitle("Time Grid");
+        dialog.setHeaderText("Days per week, minutes per timeslot, and the hours of a day\n"
+                + "(eg. 7,15,8:00-22:00 for every day in 15 minute slots from 8:00 to 22:00)");
+        dialog.setContentText("Time grid:");
+        Optional<String> result = dialog.showAndWait();
+        if (result.isPresent()) {
+            try {
+                ucol.setGrid(TimeGrid.parse(result.get()));
+                table.setActiveWeek(new Week(ucol.getGrid()));
+                table.setEditable(false);
+                taskLabel.setText("Time grid: " + ucol.getGrid());
+                updateTree();
+            } catch (IllegalArgumentException e) {
+                Alert alert = new Alert(AlertType.WARNING);
+                alert.setTitle("Time Grid Error");
+                alert.setHeaderText("Invalid Time Grid");
+                alert.setContentText(e.getMessage());
+                alert.showAndWait();
+            }
+        }
+    }
+    
     /**
      * Updates the TreeView control with data from the UserCollection whenever
      * it is called.
@@ -219,11 +254,12 @@ public class FXMLBuildTreeController implements Initializable {
             // all of it's options at once, and pass it along to the TableView
             } else if (s.getValue() instanceof Course) {
                 Course c = ((Course)s.getValue());
-                Week w = new Week();
+                TimeGrid g = ucol.getGrid();
+                Week w = new Week(g);
                 int count = 0;
                 for (Week n : c.getWeekOptions()) {
-                    for (int i = 0; i < 5; i++) {
-                        for (int j = 0; j < 13; j++) {
+                    for (int i = 0; i < g.getDays(); i++) {
+                        for (int j = 0; j < g.getSlotsPerDay(); j++) {
                             if (n.getOne(i, j) != 0) {
                                 w.setOne(i, j, n.getOne(i, j)+count);
                             }
@@ -241,8 +277,10 @@ public class FXMLBuildTreeController implements Initializable {
     /**
      * Checks if there is enough course data to be processed. If so, it creates
      * a deep copy of the UserCollection: This way, the results window has
-     * independent instances of the Courses, Weeks, etc. Finally, it opens the
-     * new window and passes it the new UserCollection.
+     * independent instances of the Courses, Weeks, etc. The valid timetables
+     * are counted (without building them, in the background) to warn about
+     * very large results. Finally, it opens the new window and passes it the
+     * new UserCollection (see countResults() and openResults()).
      */
     @FXML
     private void viewResults() {
@@ -254,73 +292,160 @@ public class FXMLBuildTreeController implements Initializable {
             alert.setContentText("You must have at least two courses to build a valid timetable.");
             alert.showAndWait();
         } else {
-            // If any weeks are empty, emptyWeek will resolve to TRUE
-            boolean emptyWeek = true;
-            for (Course c : ucol.getCourses()) {
-                for (Week w : c.getWeekOptions()) {
-                    emptyWeek = true;
-                    for (int d = 0; d < 5; d++) {
-                        for (int h = 0; h < 13; h++) {
-                            if (w.getOne(d, h) != 0) {
-                                emptyWeek = false;
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
             // If weeks are empty, throw warning
-            if (emptyWeek) {
+            if (ucol.hasEmptyWeek()) {
                 Alert alert = new Alert(AlertType.WARNING);
                 alert.setTitle("Timetable Error");
                 alert.setHeaderText("Week Contains No Data");
                 alert.setContentText("One or more of the week options for a course contains no class times.");
                 alert.showAndWait();
             } else {
-                try {
-                    // Build and show the ResultsWindow
-                    Parent resultsWindow;
-                    FXMLLoader loader = new FXMLLoader(getClass().getResource("FXMLResultsWindow.fxml"));
-                    resultsWindow = loader.load();
-                    FXMLResultsWindowController ctrl = loader.getController();
-                    Stage stage = new Stage();
-                    stage.setTitle("Timetable Results");
-                    stage.setScene(new Scene(resultsWindow));
-                    stage.setResizable(false);
-                    stage.getIcons().add(new Image("file:src/schedulebuilder/img/sbico.png"));
-                    stage.show();
-                    // Create deep copy of the UserCollection
-                    UserCollection ucolDeepCopy = new UserCollection();
-                    int validWeekNumber = 0;
-                    for (int i = 0; i < ucol.getCourses().size(); i++) {
-                        Course c = new Course();
-                        c.setName(ucol.getCourses().get(i).getName());
-                        for (int j = 0; j < ucol.getCourses().get(i).getWeekOptions().size(); j++) {
-                            Week wcopy = new Week();
-                            wcopy.setName("Week " + ++validWeekNumber);
-                            Week wold = ucol.getCourses().get(i).getWeekOptions().get(j);
-                            for (int d = 0; d < 5; d++) {
-                                for (int h = 0; h < 13; h++) {
-                                    wcopy.setOne(d, h, wold.getOne(d, h));
-                                }
-                            }
-                            c.addOption(wcopy);
-                        }
-                        ucolDeepCopy.addCourse(c);
-                    }
-                    // Once the copy is made, give it to the new window's CONTROLLER
-                    ctrl.setCollection(ucolDeepCopy);
+                // Count the timetables before searching for them, so the user
+                // is warned before starting a search which would never end
+                UserCollection ucolDeepCopy = ucol.getCopy();
+                // Results are kept next to the file, if the collection has one
+                Path schedule = activeFile == null ? null : activeFile.toPath();
+                countResults(ucolDeepCopy, schedule);
+            }
+        }
+    }
+    
+    /**
+     * Counts the timetables of a collection in a background Task, so the
+     * editor stays responsive, and shows the progress in a small window whose
+     * Cancel button (or closing it) stops the count. Once the count is done,
+     * openResults() is called with it.
+     * @param u
+     * @param schedule the file of the collection, or null if it has none
+     */
+    private void countResults(UserCollection u, Path schedule) {
+        TimetableSolver s = new TimetableSolver(u);
+        String key = ResultCache.key(u);
+        Task<Long> task = new Task<Long>() {
+            @Override
+            protected Long call() {
+                long count = RESULT_CACHE.getCount(key, schedule);
+                if (count >= 0) {
+                    return count;
                 }
-                catch (IOException e) {
-                    e.printStackTrace();
-                    Alert alert = new Alert(AlertType.ERROR);
-                    alert.setTitle("Error Generating Results");
-                    alert.setHeaderText("Error Generating Results");
-                    alert.setContentText("Unfortunately, Schedule Builder was unable to generate timetables.");
-                    alert.showAndWait();
+                s.setListener(new TimetableSolver.Listener() {
+                    @Override
+                    public void found(int[] choice, long[] slots) {
+                    }
+                    
+                    @Override
+                    public void progress(double fraction) {
+                        updateProgress(fraction, 1.0);
+                    }
+                });
+                // Always counted up to REFUSE_COUNT, so that is what is kept
+                count = s.count(REFUSE_COUNT);
+                if (!s.isCancelled()) {
+                    RESULT_CACHE.putCount(key, count, schedule);
                 }
+                return count;
+            }
+        };
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(task.progressProperty());
+        Alert progress = new Alert(AlertType.NONE);
+        progress.setTitle("Counting Timetables");
+        progress.setHeaderText("Counting the valid timetables...");
+        progress.getDialogPane().setContent(progressBar);
+        progress.getButtonTypes().setAll(ButtonType.CANCEL);
+        progress.setOnHidden((e) -> {
+            s.cancel();
+        });
+        task.setOnSucceeded((e) -> {
+            if (s.isCancelled()) {
+                return;
+            }
+            progress.setOnHidden(null);
+            progress.close();
+            openResults(u, schedule, task.getValue());
+        });
+        task.setOnFailed((e) -> {
+            progress.setOnHidden(null);
+            progress.close();
+            Throwable ex = task.getException();
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Error Generating Results");
+            alert.setHeaderText("Error Generating Results");
+            alert.setContentText("Unfortunately, Schedule Builder was unable to count the timetables: "
+                    + (ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+            alert.showAndWait();
+        });
+        progress.show();
+        Thread t = new Thread(task);
+        t.setDaemon(true);
+        t.start();
+    }
+    
+    /**
+     * Warns about an empty or very large number of timetables, then opens the
+     * results window and passes it the collection.
+     * @param ucolDeepCopy
+     * @param schedule the file of the collection, or null if it has none
+     * @param count the number of timetables, counted up to REFUSE_COUNT
+     */
+    private void openResults(UserCollection ucolDeepCopy, Path schedule, long count) {
+        boolean bestOnly = false;
+        if (count == 0) {
+            Alert alert = new Alert(AlertType.INFORMATION);
+            alert.setTitle("Timetable Error");
+            alert.setHeaderText("No Valid Timetables");
+            alert.setContentText("Every combination of the week options has a schedule conflict.");
+            alert.showAndWait();
+            return;
+        } else if (count >= REFUSE_COUNT) {
+            Alert alert = new Alert(AlertType.WARNING);
+            alert.setTitle("Too Many Timetables");
+            alert.setHeaderText("Over " + REFUSE_COUNT + " valid timetables");
+            alert.setContentText("There are too many timetables to list them all, so only the best "
+                    + "ones will be found. Use the filters to choose what is best.");
+            alert.showAndWait();
+            bestOnly = true;
+        } else if (count > WARN_COUNT) {
+            Alert alert = new Alert(AlertType.CONFIRMATION);
+            alert.setTitle("Many Timetables");
+            alert.setHeaderText(count + " valid timetables");
+            alert.setContentText("Listing all of them may take a while. Do you want to continue?");
+            Optional<ButtonType> result = alert.showAndWait();
+            if (result.get() != ButtonType.OK) {
+                return;
             }
         }
+        try {
+            // Build and show the ResultsWindow
+            Parent resultsWindow;
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("FXMLResultsWindow.fxml"));
+            resultsWindow = loader.load();
+            FXMLResultsWindowController ctrl = loader.getController();
+            Stage stage = new Stage();
+            stage.setTitle("Timetable Results");
+            stage.setScene(new Scene(resultsWindow));
+            stage.setResizable(false);
+            stage.getIcons().add(new Image("file:src/schedulebuilder/img/sbico.png"));
+            // Stop generating results if the window is closed early, and
+            // release the results
+            stage.setOnHidden((e) -> {
+                ctrl.close();
+            });
+            stage.show();
+            // Give the deep copy of the collection to the new window's CONTROLLER
+            ctrl.setBestOnly(bestOnly);
+            ctrl.setCache(RESULT_CACHE, schedule);
+            ctrl.setCollection(ucolDeepCopy);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Error Generating Results");
+            alert.setHeaderText("Error Generating Results");
+            alert.setContentText("Unfortunately, Schedule Builder was unable to generate timetables.");
+            alert.showAndWait();
+        }
     }
     
     /**
@@ -336,7 +461,7 @@ public class FXMLBuildTreeController implements Initializable {
         if (result.get() == ButtonType.OK){
             this.ucol = new UserCollection();
             parentWindow.setTitle("Schedule Builder: New Schedule");
-            table.setActiveWeek(new Week());
+            table.setActiveWeek(new Week(ucol.getGrid()));
             table.setEditable(false);
             activeFile = null;
             taskLabel.setText("Add courses to get started. Use the grid to edit weekly options.");
@@ -356,19 +481,13 @@ public class FXMLBuildTreeController implements Initializable {
         File f = fileChooser.showOpenDialog(fcStage);
         if (f != null) {
             try {
-                FileInputStream fos = new FileInputStream(f);
-                ObjectInputStream ois = new ObjectInputStream(fos);
-                try {
-                    ucol = (UserCollection)(ois.readObject()); // Returned as Object, ucol expects UserCollection
-                } catch (ClassNotFoundException x) {
-                    System.out.println("Unable to load UserCollection from file!");
-                }
+                // Reads both the binary format and older serialized files
+                ucol = ScheduleFile.load(f.toPath());
                 parentWindow.setTitle("Schedule Builder: " + f.getName());
-                table.setActiveWeek(new Week());
+                table.setActiveWeek(new Week(ucol.getGrid()));
                 table.setEditable(false);
                 taskLabel.setText("Loaded file " + f.getPath());
                 activeFile = f;
-                ois.close();
             } catch (IOException e) {
                 System.out.println("Error loading file!");
                 Alert alert = new Alert(AlertType.ERROR);
@@ -396,13 +515,10 @@ public class FXMLBuildTreeController implements Initializable {
             File f = fileChooser.showSaveDialog(fcStage);
             if (f != null) {
                 try {
-                    FileOutputStream fos = new FileOutputStream(f);
-                    ObjectOutputStream oos = new ObjectOutputStream(fos);
-                    oos.writeObject(this.ucol);
+                    ScheduleFile.save(this.ucol, f.toPath());
                     parentWindow.setTitle("Schedule Builder: " + f.getName());
                     taskLabel.setText("Saved file to " + f.getPath());
                     activeFile = f;
-                    oos.close();
                 } catch (IOException e) {
                     System.out.println("Error saving file!");
                     Alert alert = new Alert(AlertType.ERROR);
@@ -415,12 +531,9 @@ public class FXMLBuildTreeController implements Initializable {
             // Just save
         } else {
             try {
-                FileOutputStream fos = new FileOutputStream(activeFile);
-                ObjectOutputStream oos = new ObjectOutputStream(fos);
-                oos.writeObject(this.ucol);
+                ScheduleFile.save(this.ucol, activeFile.toPath());
                 parentWindow.setTitle("Schedule Builder: " + activeFile.getName());
                 taskLabel.setText("Saved file to " + activeFile.getPath());
-                oos.close();
             } catch (IOException e) {
                 System.out.println("Error saving file!");
                 Alert alert = new Alert(AlertType.ERROR);
@@ -130,6 +130,11 @@ public class FXMLEditorWindowController implements Initializable {
         treectrl.removeSelectedItem();
     }
     
+    @FXML
+    private void changeGrid() {
+        treectrl.changeGrid();
+    }
+    
     
     // HELP MENU
     
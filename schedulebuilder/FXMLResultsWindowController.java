@@ -2,16 +2,24 @@ package schedulebuilder;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.geometry.Pos;
 import javafx.scene.Parent;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.Slider;
 import javafx.scene.effect.DropShadow;
@@ -32,26 +40,54 @@ public class FXMLResultsWindowController implements Initializable {
 
     // Filter controls
     @FXML
-    private CheckBox cbMonday, cbTuesday, cbWednesday, cbThursday, cbFriday;
+    private CheckBox cbMonday, cbTuesday, cbWednesday, cbThursday, cbFriday, cbSaturday, cbSunday;
     @FXML
     private Slider sliderHours, sliderDays;
     @FXML
     private RadioButton radioHours;
     @FXML
-    private ListView resultList;
+    private CheckBox cbBestOnly;
+    @FXML
+    private ListView<Integer> resultList;
     // Reference to the main window so we can add the TableView dynamically
     @FXML
     private VBox parentVBox;
     @FXML
     private HBox legendHBox;
+    // Lists the identical options the selected timetable stands for
+    @FXML
+    private Label alternativesLabel;
+    // Progress of the results generation running in the background
+    @FXML
+    private ProgressBar progressBar;
+    @FXML
+    private Label statusLabel;
+    @FXML
+    private Button cancelButton;
     
     // TableView controller
     private FXMLTableViewController table;
     // Single-instance UserCollection which is given from the main window
     private UserCollection ucol;
     // Holds all valid timetables (timetables with no schedule conflicts are
-    // considered valid)
-    private ArrayList<Week> validTimetables = new ArrayList<>();
+    // considered valid). The items of resultList are row numbers into it.
+    private TimetableResults validTimetables;
+    // Bucket index over validTimetables which applies filter changes
+    // incrementally (built once generation is done)
+    private FilterIndex filterIndex;
+    // The solver and the background Task running it (while generating)
+    private TimetableSolver solver;
+    private Task<TimetableResults> resultsTask;
+    // Results found before, and the file of the collection (null if it has
+    // none) which they are also kept next to
+    private ResultCache cache;
+    private Path schedule;
+    // Most timetables shown in the list while results are still being generated
+    private static final int STREAM_LIMIT = 10000;
+    // Number of timetables found when only the best are wanted
+    private static final int BEST_COUNT = 100;
+    // Most timetables kept in memory; the rest go to a temporary file
+    private static final int SPILL_ROWS = 2000000;
     
     /**
      * JavaFX initialization.
@@ -68,6 +104,37 @@ public class FXMLResultsWindowController implements Initializable {
             parentVBox.getChildren().add(0,tablepane);
         } catch (IOException ex) {
         }
+        // List entries only hold a row number; the text is made when shown
+        resultList.setCellFactory((lv) -> new ListCell<Integer>() {
+            @Override
+            protected void updateItem(Integer row, boolean empty) {
+                super.updateItem(row, empty);
+                setText(empty || row == null ? null : describeRow(row));
+            }
+        });
+        resultList.setPlaceholder(new Label("No valid timetables!\nPlease double check the filters."));
+        // Refilter while a slider is being dragged, not only when it is released
+        // (in best-only mode every change starts a new search, so only once
+        // it is released)
+        for (Slider slider : new Slider[]{sliderHours, sliderDays}) {
+            slider.valueProperty().addListener((e) -> {
+                if (!cbBestOnly.isSelected() || !slider.isValueChanging()) {
+                    filterAndUpdateList();
+                }
+            });
+            slider.valueChangingProperty().addListener((e) -> {
+                if (cbBestOnly.isSelected() && !slider.isValueChanging()) {
+                    // The slider snaps to a tick right after it is released,
+                    // which would start a second search; snap it first, so
+                    // the value listener searches if the value changes
+                    double value = slider.getValue();
+                    slider.adjustValue(value);
+                    if (slider.getValue() == value) {
+                        filterAndUpdateList();
+                    }
+                }
+            });
+        }
         // When the ListView "resultList" is selected, call this method
         resultList.getSelectionModel().selectedItemProperty().addListener((e) -> {
             setTableToSelection();
@@ -75,12 +142,34 @@ public class FXMLResultsWindowController implements Initializable {
         legendHBox.setAlignment(Pos.CENTER);
     }
     
+    /**
+     * Makes the window only find the best timetables instead of all of them.
+     * Must be called before setCollection().
+     * @param b 
+     */
+    public void setBestOnly(boolean b) {
+        cbBestOnly.setSelected(b);
+    }
+    
+    /**
+     * Makes the window reuse the results found before for the same class
+     * times, and keep the ones it finds. Must be called before
+     * setCollection().
+     * @param c
+     * @param file the file of the collection, or null if it has none
+     */
+    public void setCache(ResultCache c, Path file) {
+        this.cache = c;
+        this.schedule = file;
+    }
+    
     /**
      * Public method which is used to receive the deep-copy of the UserCollection.
      * @param u 
      */
     public void setCollection(UserCollection u) {
         this.ucol = u;
+        setFilterRanges(ucol.getGrid());
         // Build and display the legend under the table
         for (Course c : ucol.getCourses()) {
             
@@ -113,70 +202,274 @@ public class FXMLResultsWindowController implements Initializable {
             legendHBox.getChildren().add(spaceBuffer);
         }
         // Process the new collection into an arrayList of weeks that do not
-        // have schedule conflicts
+        // have schedule conflicts. This runs in the background and updates
+        // the display list once it is done.
         processUserCollection();
-        // Update the display list
-        filterAndUpdateList();
     }
 
+    /**
+     * Fits the filter controls to the grid of the collection: one checkbox per
+     * day (spread out to make room for the weekend, if there is one) and
+     * sliders going up to the whole week.
+     * @param g 
+     */
+    private void setFilterRanges(TimeGrid g) {
+        CheckBox[] days = dayBoxes();
+        for (int d = 0; d < days.length; d++) {
+            days[d].setVisible(d < g.getDays());
+            if (g.getDays() > 5) {
+                days[d].setLayoutX(18 + 47 * d);
+            }
+        }
+        sliderDays.setMax(g.getDays());
+        sliderDays.setValue(g.getDays());
+        sliderHours.setMax(g.getHoursPerDay());
+        sliderHours.setValue(g.getHoursPerDay());
+    }
+    
+    /**
+     * Returns the day checkboxes, Monday first.
+     * @return 
+     */
+    private CheckBox[] dayBoxes() {
+        return new CheckBox[] {cbMonday, cbTuesday, cbWednesday, cbThursday, cbFriday, cbSaturday, cbSunday};
+    }
+    
     /**
      * When we receive the UserCollection, the Courses contain Weeks, but we do
-     * not yet have a full weekly timetable. This method iterates through every
-     * combination of the Courses and their Weeks, and creates an ArrayList of
-     * NEW weeks that are built based on valid combinations only (so, it excludes
-     * any schedule conflicts). This processing is done BEFORE any filtration.
+     * not yet have a full weekly timetable. This method hands the collection to
+     * a TimetableSolver, which walks every combination of the Courses and their
+     * Weeks and returns NEW weeks built from valid combinations only (so, it
+     * excludes any schedule conflicts). This processing is done BEFORE any
+     * filtration, since the filters can be loosened again afterwards.
+     * 
+     * The solver runs in a background Task so the window stays responsive.
+     * Timetables are streamed into the list as they are found, and once the
+     * search finishes (or is cancelled) the list is filtered and sorted. If
+     * the cache already holds the timetables of the same class times, they
+     * are shown straight away instead.
      */
     private void processUserCollection() {
-        validTimetables.add(new Week());
-        for (int i = 0; i < ucol.getCourses().size(); i++) {
-            // Empty the ArrayList of temp valid weeks from previous iteration
-            ArrayList<Week> tempTimetables = new ArrayList<>();
-            // Migrate finalArrayList to the tempArrayList
-            for (Week finalWeek : validTimetables) {
-                tempTimetables.add(finalWeek.getCopy());
-            }
-            // Empty ArrayList of final valid weeks
-            validTimetables = new ArrayList<>();
-            
-            // this gives us a new empty ArrayList (final) to add new valid weeks to,
-            // and gives us previous valid weeks (now in temp) to compare to.
-            //----- For each weekOption in Course
-            for (int potentialValid = 0; potentialValid < ucol.getCourses().get(i).getWeekOptions().size(); potentialValid++) {
-                //----- For each previously valid week in the temp ArrayList
-                for (int previousValid = 0; previousValid < tempTimetables.size(); previousValid++) {
-                    boolean isValidWeek = true;
-                    // For each day D
-                    for (int d = 0; d < 5; d++) {
-                        // For each hour in day
-                        for (int h = 0; h < 13; h++) {
-                            // For every value in each array that we are comparing, if both are != 0
-                            // (if the two arrays have a conflicting timeslot) then set isValidWeek = false;
-                            if (ucol.getCourses().get(i).getWeekOptions().get(potentialValid).getOne(d, h) != 0 &&
-                                    tempTimetables.get(previousValid).getOne(d, h) != 0) {
-                                isValidWeek = false;
-                            }
+        if (cbBestOnly.isSelected()) {
+            processBest();
+            return;
+        }
+        TimetableSolver s = new TimetableSolver(ucol);
+        s.setParallel(true);
+        s.setSpillThreshold(SPILL_ROWS);
+        solver = s;
+        // Timetables found by the solver threads, waiting to be shown, and
+        // the rows shown so far
+        ConcurrentLinkedQueue<int[]> pending = new ConcurrentLinkedQueue<>();
+        TimetableResults streamed = new TimetableResults(ucol.getCourses());
+        setResults(streamed);
+        AtomicInteger count = new AtomicInteger();
+        String key = cache == null ? null : ResultCache.key(ucol);
+        resultsTask = new Task<TimetableResults>() {
+            @Override
+            protected TimetableResults call() {
+                TimetableResults cached = cache == null ? null : cache.get(key, ucol, schedule);
+                if (cached != null) {
+                    return cached;
+                }
+                s.setListener(new TimetableSolver.Listener() {
+                    @Override
+                    public void found(int[] choice, long[] slots) {
+                        int n = count.incrementAndGet();
+                        if (n <= STREAM_LIMIT) {
+                            pending.add(choice.clone());
                         }
-                    }
-                    // If there are no conflicts, build a new array which contains data from both
-                    // Then add that week to the ArrayList of finalized weeks. In the next iteration,
-                    // it will move into the temp valid list for further comparison
-                    if (isValidWeek) {
-                        Week tmpOutputWeek = new Week();
-                        for (int d = 0; d < 5; d++) {
-                            for (int h = 0; h < 13; h++) {
-                                if (ucol.getCourses().get(i).getWeekOptions().get(potentialValid).getOne(d, h) != 0) {
-                                    tmpOutputWeek.setOne(d, h, i+1);
-                                }
-                                if (tempTimetables.get(previousValid).getOne(d, h) != 0) {
-                                    tmpOutputWeek.setOne(d, h, tempTimetables.get(previousValid).getOne(d, h));
-                                }
-                            }
+                        // The message is what triggers the list update, so
+                        // don't build a new String for every single result
+                        if (n % 64 == 1) {
+                            updateMessage("Found " + n);
                         }
-                        tmpOutputWeek.setName("Week " + (validTimetables.size()+1));
-                        validTimetables.add(tmpOutputWeek);
                     }
+                    
+                    @Override
+                    public void progress(double fraction) {
+                        updateProgress(fraction, 1.0);
+                    }
+                });
+                TimetableResults r = s.solve();
+                // A cancelled search only found some of the timetables
+                if (cache != null && !s.isCancelled()) {
+                    cache.put(key, r, schedule);
                 }
+                return r;
+            }
+        };
+        Task<TimetableResults> task = resultsTask;
+        statusLabel.textProperty().bind(task.messageProperty());
+        // Message updates are delivered on the JavaFX thread (at most once per
+        // frame), so use them to move the pending timetables into the list
+        task.messageProperty().addListener((e) -> {
+            if (solver != s) {
+                return;
+            }
+            int[] choice;
+            while ((choice = pending.poll()) != null) {
+                streamed.add(choice);
             }
+            resultList.setItems(RowList.range(streamed.size()));
+        });
+        task.setOnSucceeded((e) -> {
+            // Drop a search which was replaced by a newer one
+            if (solver != s) {
+                task.getValue().close();
+                return;
+            }
+            setResults(task.getValue());
+            filterIndex = new FilterIndex(validTimetables);
+            pending.clear();
+            finishTask(s, (s.isCancelled() ? "Stopped: " : "Done: ") + validTimetables.size() + " found");
+            filterAndUpdateList();
+        });
+        startTask(s, task);
+    }
+    
+    /**
+     * Used instead of processUserCollection() when only the best timetables
+     * are wanted. The filters and the sort order are applied by the solver
+     * itself, which keeps just the BEST_COUNT best timetables and skips the
+     * rest of the search, so this is run again whenever a filter changes.
+     */
+    private void processBest() {
+        // Stop the search for the previous filters before starting another
+        cancelResults();
+        TimetableSolver s = new TimetableSolver(ucol, currentFilters());
+        boolean byHours = radioHours.isSelected();
+        // The best timetables depend on the filters, so they are only kept
+        // in memory (the file next to the collection holds all timetables)
+        String key = cache == null ? null : ResultCache.keyBest(ucol, currentFilters(), BEST_COUNT, byHours);
+        solver = s;
+        filterIndex = null;
+        resultsTask = new Task<TimetableResults>() {
+            @Override
+            protected TimetableResults call() {
+                s.setListener(new TimetableSolver.Listener() {
+                    @Override
+                    public void found(int[] choice, long[] slots) {
+                    }
+                    
+                    @Override
+                    public void progress(double fraction) {
+                        updateProgress(fraction, 1.0);
+                    }
+                });
+                TimetableResults cached = cache == null ? null : cache.get(key, ucol, null);
+                if (cached != null) {
+                    return cached;
+                }
+                TimetableResults r = s.solveBest(BEST_COUNT, byHours);
+                if (cache != null && !s.isCancelled()) {
+                    cache.put(key, r, null);
+                }
+                return r;
+            }
+        };
+        Task<TimetableResults> task = resultsTask;
+        statusLabel.textProperty().unbind();
+        statusLabel.setText("Searching...");
+        task.setOnSucceeded((e) -> {
+            if (solver != s) {
+                return;
+            }
+            setResults(task.getValue());
+            finishTask(s, (s.isCancelled() ? "Stopped: best " : "Done: best ") + validTimetables.size());
+            // Already filtered and sorted by the solver
+            resultList.setItems(RowList.range(validTimetables.size()));
+        });
+        startTask(s, task);
+    }
+    
+    /**
+     * Shows the progress of a results Task and runs it on a background thread.
+     * @param s the solver run by the task
+     * @param task 
+     */
+    private void startTask(TimetableSolver s, Task<TimetableResults> task) {
+        progressBar.progressProperty().bind(task.progressProperty());
+        cancelButton.setDisable(false);
+        task.setOnFailed((e) -> {
+            if (solver != s) {
+                return;
+            }
+            statusLabel.textProperty().unbind();
+            statusLabel.setText("Error!");
+            cancelButton.setDisable(true);
+            Throwable ex = task.getException();
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Error Generating Results");
+            alert.setHeaderText("Error Generating Results");
+            alert.setContentText("Unfortunately, Schedule Builder was unable to generate timetables: "
+                    + (ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+            alert.showAndWait();
+        });
+        Thread t = new Thread(task);
+        t.setDaemon(true);
+        t.start();
+    }
+    
+    /**
+     * Updates the progress display once a results Task is done.
+     * @param s
+     * @param status 
+     */
+    private void finishTask(TimetableSolver s, String status) {
+        statusLabel.textProperty().unbind();
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(s.isCancelled() ? progressBar.getProgress() : 1.0);
+        statusLabel.setText(status);
+        cancelButton.setDisable(true);
+    }
+    
+    /**
+     * Replaces the timetables shown, and deletes the temporary file of the
+     * previous ones if they had one.
+     * @param r 
+     */
+    private void setResults(TimetableResults r) {
+        if (validTimetables != null && validTimetables != r) {
+            resultList.setItems(RowList.range(0));
+            validTimetables.close();
+        }
+        validTimetables = r;
+    }
+    
+    /**
+     * Stops generating results and releases them. Called when the results
+     * window is closed.
+     */
+    public void close() {
+        cancelResults();
+        solver = null;
+        if (validTimetables != null) {
+            validTimetables.close();
+        }
+    }
+    
+    /**
+     * Switches between finding every timetable and only the best ones, and
+     * starts generating results again.
+     */
+    @FXML
+    private void changeMode() {
+        if (solver != null) {
+            solver.cancel();
+        }
+        filterIndex = null;
+        processUserCollection();
+    }
+    
+    /**
+     * Stops generating results. The timetables found so far are kept and
+     * displayed. Also called when the results window is closed.
+     */
+    @FXML
+    public void cancelResults() {
+        if (solver != null) {
+            solver.cancel();
         }
     }
     
@@ -184,109 +477,106 @@ public class FXMLResultsWindowController implements Initializable {
      * A rather large and messy method which generally works like this:
      * [All possible timetables] -> -Filters- -> [Filtered timetables] -> {List}
      * Basically, filters the timetables based on the settings and updates the
-     * list which the user can then click to view their timetables.
+     * list which the user can then click to view their timetables. The list
+     * only holds row numbers; see describeRow() and setTableToSelection().
+     * The filtering itself is done incrementally by the FilterIndex.
      */
     @FXML
     private void filterAndUpdateList() {
-        resultList.getItems().clear();
-        boolean[] dayFilters = {
-            cbMonday.isSelected(),
-            cbTuesday.isSelected(),
-            cbWednesday.isSelected(),
-            cbThursday.isSelected(),
-            cbFriday.isSelected()};
-        ArrayList<Week> tempList = new ArrayList<>();
-        ArrayList<Week> sortedList = new ArrayList<>();
-        for (Week w : validTimetables) {
-            // Initially assume the week meets the filter requirements, then check:
-            boolean includeInResults = true;
-            // Check if the week has classes on a day that the user does not want
-            for (int d = 0; d < 5; d++) {
-                if (!dayFilters[d]) {
-                    for (int h = 0; h < 13; h++) {
-                        if (w.getOne(d, h) != 0) {
-                            includeInResults = false;
-                        }
-                    }
-                }
-            }
-            // Check if the week has more hours than the user wants (including time between classes)
-            if (w.getLongestDay() > sliderHours.getValue()) {
-                includeInResults = false;
-            }
-            // Check if the week has more total days than the user wants
-            if (w.getTotalDays() > sliderDays.getValue()) {
-                includeInResults = false;
-            }
-            // If the week survived all the filters, add it to the sorting list
-            if (includeInResults) {
-                tempList.add(w);
+        // In best-only mode the solver does the filtering, so search again
+        if (cbBestOnly.isSelected()) {
+            if (ucol != null) {
+                processBest();
             }
+            return;
         }
-        // Sort the tempList into the sortedList
-        // By fewest hours if radiobutton Hours is selected:
-        int c = 0;
-        if (radioHours.isSelected()) {
-            for (Week w : tempList) {
-                c+=1;
-                w.setName("Timetable " + c + "            Hours: " + w.getTotalHours() + "            Days: " + w.getTotalDays());
-                if (sortedList.isEmpty()) {
-                    sortedList.add(w);
-                } else {
-                    int higherIndex = sortedList.size();
-                    for (Week o : sortedList) {
-                        if (w.getTotalHours() < o.getTotalHours()) {
-                            higherIndex = sortedList.indexOf(o);
-                            break;
-                        }
-                    }
-                    sortedList.add(higherIndex,w);
-                }
-            }
-        // By fewest days otherwise:
-        } else {
-            for (Week w : tempList) {
-                if (sortedList.isEmpty()) {
-                    sortedList.add(w);
-                } else {
-                    int higherIndex = sortedList.size();
-                    for (Week o : sortedList) {
-                        if (w.getTotalDays() < o.getTotalDays()) {
-                            higherIndex = sortedList.indexOf(o);
-                            break;
-                        }
-                    }
-                    sortedList.add(higherIndex,w);
-                }
-            }
+        // While results are still being generated the list shows them as they
+        // come in; the filters are applied once generation is done
+        if (filterIndex == null) {
+            return;
         }
-        // Finally, if the sorted list is empty (no results to display), put some
-        // text in there notifying the user. Otherwise, populate the list with
-        // the generated results.
-        if (sortedList.isEmpty()) {
-            Week w = new Week();
-            w.setName("No valid timetables!");
-            resultList.getItems().add(w);
-            Week w2 = new Week();
-            w2.setName("Please double check the filters.");
-            resultList.getItems().add(w2);
-        } else {
-            for (Week w : sortedList) {
-                resultList.getItems().add(w);
-            }
+        // Only the rows affected by the change are looked at; if nothing
+        // changed, leave the list (and its selection) alone
+        if (filterIndex.update(currentFilters(), radioHours.isSelected())) {
+            // Populate the list with the filtered, sorted results. If it is
+            // empty, the ListView placeholder notifies the user instead.
+            resultList.setItems(new RowList(filterIndex.getVisible(), filterIndex.getVisibleCount()));
         }
     }
     
+    /**
+     * Returns the filters currently set by the controls.
+     * @return 
+     */
+    private Constraints currentFilters() {
+        TimeGrid g = ucol.getGrid();
+        CheckBox[] days = dayBoxes();
+        boolean[] dayFilters = new boolean[g.getDays()];
+        for (int d = 0; d < dayFilters.length; d++) {
+            dayFilters[d] = days[d].isSelected();
+        }
+        Constraints filters = new Constraints(g);
+        filters.setAllowedDays(dayFilters);
+        filters.setMaxHoursPerDay((int)sliderHours.getValue());
+        filters.setMaxDays((int)sliderDays.getValue());
+        return filters;
+    }
+    
+    /**
+     * Returns the text shown in the list for one timetable.
+     * @param row
+     * @return 
+     */
+    private String describeRow(int row) {
+        String text = "Timetable " + (row+1) + "            Hours: "
+                + validTimetables.getGrid().formatHours(validTimetables.getTotalHours(row))
+                + "            Days: " + validTimetables.getTotalDays(row);
+        // A row found with identical options stands for several timetables
+        // which look the same
+        long variants = validTimetables.getVariants(row);
+        return variants > 1 ? text + "    (x" + variants + ")" : text;
+    }
+    
     /**
      * When the ListView "resultList" is selected, call this method. Sends the
-     * selected timetable to the TableView to be displayed.
+     * selected timetable to the TableView to be displayed. The Week is only
+     * built now, from the row's course options, and the identical options it
+     * stands for are listed under the legend.
      */
     @FXML
     private void setTableToSelection() {
         if (resultList.getSelectionModel().getSelectedItem() == null) {
-            table.setActiveWeek(new Week());
+            table.setActiveWeek(new Week(ucol.getGrid()));
+            alternativesLabel.setText("");
         } else {
-            table.setActiveWeek((Week)resultList.getSelectionModel().getSelectedItem());
+            int row = resultList.getSelectionModel().getSelectedItem();
+            table.setActiveWeek(validTimetables.getWeek(row));
+            alternativesLabel.setText(describeAlternatives(row));
+        }
+    }
+    
+    /**
+     * Returns the text listing, for every course of one timetable with
+     * identical options, which options it could be taken in (empty if the
+     * row stands for one timetable only).
+     * @param row
+     * @return 
+     */
+    private String describeAlternatives(int row) {
+        StringBuilder text = new StringBuilder();
+        for (int c = 0; c < validTimetables.getCourses().size(); c++) {
+            int[] options = validTimetables.getAlternatives(row, c);
+            if (options.length < 2) {
+                continue;
+            }
+            Course course = validTimetables.getCourses().get(c);
+            text.append(text.length() == 0 ? "Same class times in: " : "    ");
+            text.append(course.getName()).append(" (");
+            for (int i = 0; i < options.length; i++) {
+                text.append(i == 0 ? "" : ", ").append(course.getWeekOptions().get(options[i]).getName());
+            }
+            text.append(")");
         }
+        return text.toString();
     }
 }
@@ -5,12 +5,21 @@ import java.util.ResourceBundle;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.geometry.HPos;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.RowConstraints;
 import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
 
 /**
- * The TableView (GridPane) FXML used to display and edit Weeks.
+ * The TableView (GridPane) FXML used to display and edit Weeks. The grid of
+ * TableRects (and the day and time labels around it) is built for the
+ * TimeGrid of the week being shown, and rebuilt when a week on another grid
+ * comes along.
  * 
  * @author Sean Berwick
  * @author Steve Markham
@@ -25,8 +34,12 @@ public class FXMLTableViewController implements Initializable{
     private boolean isEditable = false;
     // The active week being displayed
     private Week activeWeek;
+    // The grid the TableRects are laid out for
+    private TimeGrid grid;
     // The 2-dimensional array of TableRects which act as buttons on the grid
-    private TableRect[][] tableRects = new TableRect[5][13];
+    private TableRect[][] tableRects;
+    // Size of the whole table of TableRects, whatever the grid
+    private static final double TABLE_WIDTH = 520, TABLE_HEIGHT = 416;
     
     // A list of colors which will be used to display weeks on the grid
     // The first value is used for "empty" timeslots
@@ -48,14 +61,52 @@ public class FXMLTableViewController implements Initializable{
      */
     @Override
     public void initialize(URL url, ResourceBundle rb) {
-        // Creates the grid of TableRects at runtime
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 13; j++) {
+        layoutGrid(TimeGrid.DEFAULT);
+    }
+    
+    /**
+     * Creates the grid of TableRects at runtime, with a label for every day
+     * and for every timeslot starting on the hour (every timeslot, if they
+     * are an hour or longer).
+     * @param g 
+     */
+    private void layoutGrid(TimeGrid g) {
+        this.grid = g;
+        // (Only the labels and rects: the grid lines are a child too)
+        tableGrid.getChildren().removeIf((n) -> n instanceof Label || n instanceof TableRect);
+        tableGrid.getColumnConstraints().clear();
+        tableGrid.getRowConstraints().clear();
+        double width = Math.floor(TABLE_WIDTH / g.getDays());
+        double height = Math.max(4, Math.floor(TABLE_HEIGHT / g.getSlotsPerDay()));
+        tableGrid.getColumnConstraints().add(new ColumnConstraints(10, 100, Double.MAX_VALUE));
+        tableGrid.getRowConstraints().add(new RowConstraints(10, 42, 42));
+        for (int i = 0; i < g.getDays(); i++) {
+            tableGrid.getColumnConstraints().add(new ColumnConstraints(10, width - 4, Double.MAX_VALUE));
+            Label day = new Label(g.getDayName(i));
+            day.setAlignment(Pos.CENTER);
+            day.setTextAlignment(TextAlignment.CENTER);
+            day.setPrefSize(width - 2, 35);
+            tableGrid.add(day, i+1, 0);
+        }
+        for (int j = 0; j < g.getSlotsPerDay(); j++) {
+            tableGrid.getRowConstraints().add(new RowConstraints(Math.min(10, height), height + 9, height + 9));
+            if (g.getMinutesPerSlot() >= 60 || g.isOnTheHour(j)) {
+                Label time = new Label(g.getTimeLabel(j));
+                time.setAlignment(Pos.TOP_RIGHT);
+                time.setTextAlignment(TextAlignment.RIGHT);
+                time.setFont(Font.font(height >= 16 ? 14 : 10));
+                time.setPrefWidth(100);
+                tableGrid.add(time, 0, j+1);
+            }
+        }
+        tableRects = new TableRect[g.getDays()][g.getSlotsPerDay()];
+        for (int i = 0; i < g.getDays(); i++) {
+            for (int j = 0; j < g.getSlotsPerDay(); j++) {
                 TableRect nr = new TableRect();
                 tableRects[i][j] = nr;
                 nr.setID(i, j);
-                nr.setHeight(32);
-                nr.setWidth(104);
+                nr.setHeight(height);
+                nr.setWidth(width);
                 nr.setFill(Color.LIGHTGREY);
                 nr.setStroke(Color.BLACK);
                 nr.setStrokeWidth(0.1);
@@ -74,6 +125,9 @@ public class FXMLTableViewController implements Initializable{
      */
     public void setActiveWeek(Week w) {
         this.activeWeek = w;
+        if (!w.getGrid().equals(grid)) {
+            layoutGrid(w.getGrid());
+        }
         updateRects();
     }
     
@@ -114,8 +168,8 @@ public class FXMLTableViewController implements Initializable{
     private void updateRects() {
         resetRects();
         int c;
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 13; j++) {
+        for (int i = 0; i < grid.getDays(); i++) {
+            for (int j = 0; j < grid.getSlotsPerDay(); j++) {
                 if (activeWeek.getOne(i,j) > NUM_COLORS) {
                     c = activeWeek.getOne(i,j)%NUM_COLORS;
                 } else {
@@ -131,8 +185,8 @@ public class FXMLTableViewController implements Initializable{
      * to start from scratch).
      */
     private void resetRects() {
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 13; j++) {
+        for (int i = 0; i < grid.getDays(); i++) {
+            for (int j = 0; j < grid.getSlotsPerDay(); j++) {
                 tableRects[i][j].setFill(RECT_COLORS[0]);
             }
         }
@@ -0,0 +1,201 @@
+package schedulebuilder;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the filtered, sorted list of results up to date as the filters
+ * change, without going through every result each time.
+ * 
+ * Whether a timetable passes the filters only depends on which days it uses
+ * and on its longest day, so the results are put into buckets by those two
+ * values once. A filter change then only decides which buckets are in or out:
+ * when a filter is tightened the rows of the buckets which dropped out are
+ * removed from the visible list, and when it is loosened the rows of the
+ * buckets which came in are sorted and merged into it. The rest of the rows
+ * are never looked at.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class FilterIndex {
+    
+    private final TimetableResults results;
+    // Number of possible longest days (0 to slotsPerDay)
+    private final int lengths;
+    // Rows of each bucket, in ascending row order. The bucket of a row is
+    // dayMask * (slotsPerDay+1) + longestDay.
+    private final int[][] bucketRows;
+    // Which buckets pass the current filters
+    private boolean[] included;
+    // The sort order the visible list is in
+    private boolean byHours;
+    // Rows passing the filters, sorted, and how many there are
+    private int[] visible = new int[0];
+    private int visibleCount = 0;
+    
+    /**
+     * Builds the bucket index for a result list. Nothing is visible until
+     * update() is called.
+     * @param r 
+     */
+    public FilterIndex(TimetableResults r) {
+        this.results = r;
+        this.lengths = r.getGrid().getSlotsPerDay() + 1;
+        int buckets = (1 << r.getGrid().getDays()) * lengths;
+        int[] counts = new int[buckets];
+        for (int row = 0; row < r.size(); row++) {
+            counts[bucketOf(row)] += 1;
+        }
+        bucketRows = new int[buckets][];
+        for (int b = 0; b < buckets; b++) {
+            bucketRows[b] = new int[counts[b]];
+            counts[b] = 0;
+        }
+        for (int row = 0; row < r.size(); row++) {
+            int b = bucketOf(row);
+            bucketRows[b][counts[b]++] = row;
+        }
+    }
+    
+    /**
+     * Applies new filters and sort order. Returns false if the visible list
+     * did not change.
+     * @param filters
+     * @param sortByHours sort by fewest hours if true, by fewest days otherwise
+     * @return 
+     */
+    public boolean update(Constraints filters, boolean sortByHours) {
+        boolean[] old = included;
+        boolean[] now = new boolean[bucketRows.length];
+        boolean removed = false, added = false;
+        for (int b = 0; b < bucketRows.length; b++) {
+            int dayMask = b / lengths;
+            now[b] = filters.allows(dayMask, b % lengths, Integer.bitCount(dayMask));
+            if (old != null && now[b] != old[b] && bucketRows[b].length > 0) {
+                if (now[b]) {
+                    added = true;
+                } else {
+                    removed = true;
+                }
+            }
+        }
+        included = now;
+        if (old == null || sortByHours != byHours) {
+            // First time, or the sort order changed: build the list from scratch
+            byHours = sortByHours;
+            visible = collect(now, null);
+            visibleCount = visible.length;
+            return true;
+        }
+        // Tightened: drop the rows whose bucket is now excluded, keeping the order
+        // (into a new array, since the old one may still be on display)
+        if (removed) {
+            int[] kept = new int[visibleCount];
+            int n = 0;
+            for (int i = 0; i < visibleCount; i++) {
+                if (now[bucketOf(visible[i])]) {
+                    kept[n++] = visible[i];
+                }
+            }
+            visible = kept;
+            visibleCount = n;
+        }
+        // Loosened: sort the rows of the newly included buckets and merge them in
+        if (added) {
+            merge(collect(now, old));
+        }
+        return removed || added;
+    }
+    
+    /**
+     * Returns the visible rows, in display order. Only the first
+     * getVisibleCount() entries are in use.
+     * @return 
+     */
+    public int[] getVisible() {
+        return visible;
+    }
+    
+    /**
+     * Returns the number of visible rows.
+     * @return 
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+    
+    /**
+     * Returns the bucket of a row.
+     * @param row
+     * @return 
+     */
+    private int bucketOf(int row) {
+        return results.getDayMask(row) * lengths + results.getLongestDay(row);
+    }
+    
+    /**
+     * Returns the sort key of a row.
+     * @param row
+     * @return 
+     */
+    private int keyOf(int row) {
+        return byHours ? results.getTotalHours(row) : results.getTotalDays(row);
+    }
+    
+    /**
+     * Collects and sorts the rows of the buckets which are set in 'in' and not
+     * in 'except' (if given).
+     * @param in
+     * @param except
+     * @return 
+     */
+    private int[] collect(boolean[] in, boolean[] except) {
+        int n = 0;
+        for (int b = 0; b < bucketRows.length; b++) {
+            if (in[b] && (except == null || !except[b])) {
+                n += bucketRows[b].length;
+            }
+        }
+        int[] rows = new int[n];
+        n = 0;
+        for (int b = 0; b < bucketRows.length; b++) {
+            if (in[b] && (except == null || !except[b])) {
+                System.arraycopy(bucketRows[b], 0, rows, n, bucketRows[b].length);
+                n += bucketRows[b].length;
+            }
+        }
+        // Put the rows back in enumeration order first, so that the stable
+        // sort leaves ties in the same order as a full re-sort would
+        Arrays.sort(rows);
+        int[] keys = Ranking.keys(results, rows, n, byHours);
+        Ranking.sort(rows, keys, n);
+        return rows;
+    }
+    
+    /**
+     * Merges sorted rows into the visible list. Both are ordered by key, then
+     * by row number.
+     * @param extra 
+     */
+    private void merge(int[] extra) {
+        int[] out = new int[visibleCount + extra.length];
+        int a = 0, b = 0, o = 0;
+        while (a < visibleCount && b < extra.length) {
+            int ka = keyOf(visible[a]), kb = keyOf(extra[b]);
+            if (ka < kb || (ka == kb && visible[a] < extra[b])) {
+                out[o++] = visible[a++];
+            } else {
+                out[o++] = extra[b++];
+            }
+        }
+        while (a < visibleCount) {
+            out[o++] = visible[a++];
+        }
+        while (b < extra.length) {
+            out[o++] = extra[b++];
+        }
+        visible = out;
+        visibleCount = o;
+    }
+}
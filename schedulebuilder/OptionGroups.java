@@ -0,0 +1,112 @@
+package schedulebuilder;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Groups the week options of each course which have exactly the same class
+ * times (duplicated weeks, cross-listed sections, etc.). Identical options
+ * combine with the other courses in exactly the same way, so the solver only
+ * searches the first option of each group, its representative. A timetable
+ * found that way stands for every combination of the options in its groups,
+ * which are only looked up (with getMembers()) when they are displayed or
+ * iterated over.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class OptionGroups {
+    
+    // members[c][o] lists the options of course c identical to option o, if o
+    // is the representative of its group (the first of them), otherwise null
+    private final int[][][] members;
+    // Number of groups of each course
+    private final int[] groups;
+    
+    /**
+     * Groups the options of the provided courses by their occupancy bitmaps.
+     * @param courses 
+     */
+    public OptionGroups(ArrayList<Course> courses) {
+        members = new int[courses.size()][][];
+        groups = new int[courses.size()];
+        for (int c = 0; c < courses.size(); c++) {
+            ArrayList<Week> options = courses.get(c).getWeekOptions();
+            members[c] = new int[options.size()][];
+            // The options found with each distinct bitmap, in option order
+            HashMap<LongBuffer, ArrayList<Integer>> found = new HashMap<>();
+            for (int o = 0; o < options.size(); o++) {
+                found.computeIfAbsent(LongBuffer.wrap(options.get(o).getSlots()),
+                        (k) -> new ArrayList<>()).add(o);
+            }
+            for (ArrayList<Integer> group : found.values()) {
+                int[] m = new int[group.size()];
+                for (int i = 0; i < m.length; i++) {
+                    m[i] = group.get(i);
+                }
+                members[c][m[0]] = m;
+            }
+            groups[c] = found.size();
+        }
+    }
+    
+    /**
+     * Creates the groups of only some of the courses (see subset()).
+     * @param members
+     * @param groups 
+     */
+    private OptionGroups(int[][][] members, int[] groups) {
+        this.members = members;
+        this.groups = groups;
+    }
+    
+    /**
+     * Returns the groups of only some of the courses, in the provided order:
+     * course c of the result is course courses[c] of these groups. The
+     * groups themselves are shared, not copied.
+     * @param courses
+     * @return 
+     */
+    public OptionGroups subset(int[] courses) {
+        int[][][] m = new int[courses.length][][];
+        int[] g = new int[courses.length];
+        for (int c = 0; c < courses.length; c++) {
+            m[c] = members[courses[c]];
+            g[c] = groups[courses[c]];
+        }
+        return new OptionGroups(m, g);
+    }
+    
+    /**
+     * Returns true if option o of course c is the first of its group, ie. the
+     * one the solver searches.
+     * @param c
+     * @param o
+     * @return 
+     */
+    public boolean isRepresentative(int c, int o) {
+        return members[c][o] != null;
+    }
+    
+    /**
+     * Returns the options of course c identical to its option o (including o),
+     * which must be a representative.
+     * @param c
+     * @param o
+     * @return 
+     */
+    public int[] getMembers(int c, int o) {
+        return members[c][o];
+    }
+    
+    /**
+     * Returns the number of distinct options of course c.
+     * @param c
+     * @return 
+     */
+    public int getGroupCount(int c) {
+        return groups[c];
+    }
+}
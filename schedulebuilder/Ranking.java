@@ -0,0 +1,118 @@
+package schedulebuilder;
+
+/**
+ * Sorts filtered result rows for display. The sort key of every row is looked
+ * up once into a primitive array, then the rows are sorted with a stable
+ * O(n log n) sort on ints (a counting sort when the keys fit a small range,
+ * which is the usual case for hours and days). Rows with equal keys keep their
+ * original order, as with the old insertion sort.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class Ranking {
+    
+    // Largest key range sorted with a counting sort instead of a merge sort
+    private static final int COUNTING_RANGE = 4096;
+    
+    /**
+     * Looks up the sort key of each row: the total hours if byHours is true,
+     * the number of days otherwise.
+     * @param results
+     * @param rows
+     * @param n number of entries of 'rows' in use
+     * @param byHours
+     * @return 
+     */
+    public static int[] keys(TimetableResults results, int[] rows, int n, boolean byHours) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = byHours ? results.getTotalHours(rows[i]) : results.getTotalDays(rows[i]);
+        }
+        return keys;
+    }
+    
+    /**
+     * Sorts the first n rows by ascending key. keys[i] belongs to rows[i], and
+     * both arrays are rearranged together. The sort is stable.
+     * @param rows
+     * @param keys
+     * @param n 
+     */
+    public static void sort(int[] rows, int[] keys, int n) {
+        if (n < 2) {
+            return;
+        }
+        int min = keys[0], max = keys[0];
+        for (int i = 1; i < n; i++) {
+            min = Math.min(min, keys[i]);
+            max = Math.max(max, keys[i]);
+        }
+        if ((long)max - min < COUNTING_RANGE) {
+            countingSort(rows, keys, n, min, max);
+        } else {
+            mergeSort(rows, keys, n);
+        }
+    }
+    
+    /**
+     * Stable counting sort for keys between min and max.
+     */
+    private static void countingSort(int[] rows, int[] keys, int n, int min, int max) {
+        int[] start = new int[max - min + 2];
+        for (int i = 0; i < n; i++) {
+            start[keys[i] - min + 1] += 1;
+        }
+        for (int b = 1; b < start.length; b++) {
+            start[b] += start[b - 1];
+        }
+        int[] outRows = new int[n];
+        int[] outKeys = new int[n];
+        for (int i = 0; i < n; i++) {
+            int pos = start[keys[i] - min]++;
+            outRows[pos] = rows[i];
+            outKeys[pos] = keys[i];
+        }
+        System.arraycopy(outRows, 0, rows, 0, n);
+        System.arraycopy(outKeys, 0, keys, 0, n);
+    }
+    
+    /**
+     * Stable bottom-up merge sort.
+     */
+    private static void mergeSort(int[] rows, int[] keys, int n) {
+        int[] r = rows, k = keys;
+        int[] tr = new int[n], tk = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n), hi = Math.min(lo + 2 * width, n);
+                int a = lo, b = mid, o = lo;
+                while (a < mid && b < hi) {
+                    // Take from the left run on ties to keep the sort stable
+                    if (k[b] < k[a]) {
+                        tr[o] = r[b];
+                        tk[o++] = k[b++];
+                    } else {
+                        tr[o] = r[a];
+                        tk[o++] = k[a++];
+                    }
+                }
+                while (a < mid) {
+                    tr[o] = r[a];
+                    tk[o++] = k[a++];
+                }
+                while (b < hi) {
+                    tr[o] = r[b];
+                    tk[o++] = k[b++];
+                }
+            }
+            int[] swap = r; r = tr; tr = swap;
+            swap = k; k = tk; tk = swap;
+        }
+        if (r != rows) {
+            System.arraycopy(r, 0, rows, 0, n);
+            System.arraycopy(k, 0, keys, 0, n);
+        }
+    }
+}
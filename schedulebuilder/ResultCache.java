@@ -0,0 +1,486 @@
+package schedulebuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the timetables (and the counts) worked out for recent collections,
+ * so that viewing the results of an unchanged schedule again doesn't search
+ * for them again. Entries are keyed by a hash of what the search depends on:
+ * the grid and the class times of every week option, course by course (the
+ * names of the courses and weeks don't matter), plus the filters and order
+ * for searches which apply them (see keyBest()). The full list of timetables
+ * doesn't depend on the filters, which are applied to it afterwards, so it is
+ * found once for all filter settings.
+ *
+ * The most recently used entries are kept in memory, up to MAX_ENTRIES of
+ * them and MAX_ROWS timetables in all; result sets which are larger, or were
+ * spilled to a temporary file, are not kept. Optionally, the count and the
+ * timetables (up to MAX_FILE_ROWS) of a schedule saved in a .sch file are
+ * also kept in a file next to it (the same name plus ".results"), so they
+ * survive restarting the program. The file is written in the background:
+ *
+ *   int    MAGIC ("SCHR")
+ *   short  VERSION
+ *   string key
+ *   long   number of timetables, -1 if unknown
+ *   int    number of rows, -1 if the rows are not stored
+ *   byte   1 if the rows stand for groups of identical options, else 0
+ *   int    number of courses
+ *   byte   bytes per option number: 1, 2 or 4 (enough for the course with
+ *          the most options), then for each row: the option of each course,
+ *          total hours and longest day (one short each), number of days and
+ *          day mask (one byte each)
+ *
+ * Strings are written as by DataOutputStream.writeUTF(). getCount() only
+ * reads the file up to the number of rows, and the rows are read by get(), so
+ * the count is quick to check before the results window opens. A file which
+ * does not match the schedule any more is simply replaced.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class ResultCache {
+    
+    // "SCHR"
+    public static final int MAGIC = 0x53434852;
+    public static final short VERSION = 1;
+    // Most entries kept in memory, and most timetables in all of them
+    public static final int MAX_ENTRIES = 8;
+    public static final int MAX_ROWS = 2000000;
+    // Most timetables kept in a results file (larger sets only keep the count)
+    public static final int MAX_FILE_ROWS = 1000000;
+    // Writes the results files one at a time, in the order they were stored
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor((task) -> {
+        Thread t = new Thread(task, "Results cache writer");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    // What is known for one key
+    private static class Entry {
+        long count = -1;
+        TimetableResults results;
+        // False while only the count has been read from the results file
+        boolean complete = true;
+    }
+    
+    // Least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int rows = 0;
+    
+    /**
+     * Returns the key of the full list of timetables of a collection.
+     * @param u
+     * @return 
+     */
+    public static String key(UserCollection u) {
+        return hash(u, "all");
+    }
+    
+    /**
+     * Returns the key of the k best timetables of a collection which pass
+     * the filters, ranked by fewest hours if byHours is true, fewest days
+     * otherwise.
+     * @param u
+     * @param filters
+     * @param k
+     * @param byHours
+     * @return 
+     */
+    public static String keyBest(UserCollection u, Constraints filters, int k, boolean byHours) {
+        Constraints c = filters.withGrid(u.getGrid());
+        StringBuilder query = new StringBuilder("best ").append(k).append(byHours ? " hours " : " days ");
+        for (int d = 0; d < u.getGrid().getDays(); d++) {
+            query.append(c.isDayAllowed(d) ? '1' : '0');
+        }
+        query.append(' ').append(c.getMaxSlotsPerDay()).append(' ').append(c.getMaxDays());
+        return hash(u, query.toString());
+    }
+    
+    /**
+     * Returns the number of timetables stored under a key, or -1 if it is
+     * not known. Only the start of the results file is read; the timetables
+     * are left there until get() asks for them.
+     * @param key
+     * @param schedule the .sch file of the collection, or null
+     * @return 
+     */
+    public synchronized long getCount(String key, Path schedule) {
+        Entry e = entries.get(key);
+        if (e == null && schedule != null) {
+            e = readCount(key, resultsFile(schedule));
+            if (e != null) {
+                remember(key, e);
+            }
+        }
+        return e == null ? -1 : e.count;
+    }
+    
+    /**
+     * Stores the number of timetables of a key.
+     * @param key
+     * @param count
+     * @param schedule the .sch file of the collection, or null to only keep
+     * it in memory
+     */
+    public synchronized void putCount(String key, long count, Path schedule) {
+        Entry e = entry(key);
+        // Nothing new, and the file may hold timetables not read yet
+        if (e.count == count) {
+            return;
+        }
+        e.count = count;
+        write(key, e, schedule);
+    }
+    
+    /**
+     * Returns the timetables stored under a key, as a copy for the courses of
+     * the provided collection, or null if they are not known.
+     * @param key
+     * @param u
+     * @param schedule the .sch file of the collection, or null
+     * @return 
+     */
+    public synchronized TimetableResults get(String key, UserCollection u, Path schedule) {
+        Entry e = entries.get(key);
+        if ((e == null || !e.complete) && schedule != null) {
+            Entry read = read(key, u, resultsFile(schedule));
+            if (read != null) {
+                e = read;
+                remember(key, e);
+            } else if (e != null) {
+                // The file has changed since the count was read
+                e.complete = true;
+            }
+        }
+        if (e == null || e.results == null) {
+            return null;
+        }
+        return e.results.copyFor(u.getCourses());
+    }
+    
+    /**
+     * Stores the timetables of a key, unless there are too many of them. The
+     * results must not be changed afterwards.
+     * @param key
+     * @param r
+     * @param schedule the .sch file of the collection, or null to only keep
+     * them in memory
+     */
+    public synchronized void put(String key, TimetableResults r, Path schedule) {
+        if (r.isSpilled() || r.size() > MAX_ROWS) {
+            return;
+        }
+        Entry e = entry(key);
+        if (e.results != null) {
+            rows -= e.results.size();
+        }
+        e.results = r;
+        e.complete = true;
+        rows += r.size();
+        evict();
+        write(key, e, schedule);
+    }
+    
+    /**
+     * Empties the memory part of the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        rows = 0;
+    }
+    
+    /**
+     * Returns the file the results of a schedule are kept in.
+     * @param schedule
+     * @return 
+     */
+    public static Path resultsFile(Path schedule) {
+        return schedule.resolveSibling(schedule.getFileName() + ".results");
+    }
+    
+    /**
+     * Keeps an entry read from a results file in memory, in place of the
+     * entry of the key if there is one.
+     * @param key
+     * @param e 
+     */
+    private void remember(String key, Entry e) {
+        Entry old = entries.put(key, e);
+        if (old != null && old.results != null) {
+            rows -= old.results.size();
+        }
+        if (e.results != null) {
+            rows += e.results.size();
+        }
+        evict();
+    }
+    
+    /**
+     * Returns the entry of a key, adding an empty one if there is none.
+     * @param key
+     * @return 
+     */
+    private Entry entry(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            e = new Entry();
+            entries.put(key, e);
+            evict();
+        }
+        return e;
+    }
+    
+    /**
+     * Drops the least recently used entries until the limits are met. The
+     * most recent entry is always kept.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > MAX_ENTRIES || rows > MAX_ROWS) && entries.size() > 1) {
+            Entry e = it.next().getValue();
+            if (e.results != null) {
+                rows -= e.results.size();
+            }
+            it.remove();
+        }
+    }
+    
+    /**
+     * Hashes the class times of a collection together with a description of
+     * the search.
+     * @param u
+     * @param query
+     * @return the hash in hexadecimal 
+     */
+    private static String hash(UserCollection u, String query) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+        md.update((u.getGrid() + "|" + query).getBytes(StandardCharsets.UTF_8));
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        buf.putInt(u.getCourses().size());
+        for (Course c : u.getCourses()) {
+            buf = flush(md, buf);
+            buf.putInt(c.getWeekOptions().size());
+            for (Week w : c.getWeekOptions()) {
+                int[] intervals = w.getIntervals();
+                buf = flush(md, buf);
+                buf.putInt(intervals.length);
+                for (int v : intervals) {
+                    buf = flush(md, buf);
+                    buf.putInt(v);
+                }
+            }
+        }
+        buf.flip();
+        md.update(buf);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Hands the bytes of the buffer to the digest once it is nearly full.
+     * @param md
+     * @param buf
+     * @return the buffer, emptied if it was handed over 
+     */
+    private static ByteBuffer flush(MessageDigest md, ByteBuffer buf) {
+        if (buf.remaining() < 4) {
+            buf.flip();
+            md.update(buf);
+            buf.clear();
+        }
+        return buf;
+    }
+    
+    /**
+     * Writes an entry to the results file of a schedule, in the background.
+     * The cache is only a shortcut, so a file which can't be written is left
+     * out; it is written under another name and then renamed, so a file cut
+     * short (eg. by the program ending) is never read.
+     * @param key
+     * @param e
+     * @param schedule 
+     */
+    private static void write(String key, Entry e, Path schedule) {
+        if (schedule == null) {
+            return;
+        }
+        long count = e.count;
+        TimetableResults r = e.results != null && e.results.size() <= MAX_FILE_ROWS ? e.results : null;
+        WRITER.execute(() -> {
+            Path file = resultsFile(schedule);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    writeEntry(out, key, count, r);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                System.out.println("Unable to save results to " + file + ": " + ex.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Writes the count and timetables (which may be null) of a key in the
+     * format of the results files.
+     * @param out
+     * @param key
+     * @param count
+     * @param r
+     * @throws IOException 
+     */
+    private static void writeEntry(DataOutputStream out, String key, long count, TimetableResults r) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(key);
+        out.writeLong(count);
+        out.writeInt(r == null ? -1 : r.size());
+        if (r == null) {
+            return;
+        }
+        int width = r.getCourses().size();
+        int bytes = optionBytes(r.getCourses());
+        out.writeByte(r.getGroups() != null ? 1 : 0);
+        out.writeInt(width);
+        out.writeByte(bytes);
+        for (int row = 0; row < r.size(); row++) {
+            for (int i = 0; i < width; i++) {
+                int o = r.getOption(row, i);
+                if (bytes == 1) {
+                    out.writeByte(o);
+                } else if (bytes == 2) {
+                    out.writeShort(o);
+                } else {
+                    out.writeInt(o);
+                }
+            }
+            out.writeShort(r.getTotalHours(row));
+            out.writeShort(r.getLongestDay(row));
+            out.writeByte(r.getTotalDays(row));
+            out.writeByte(r.getDayMask(row));
+        }
+    }
+    
+    /**
+     * Returns the bytes needed for the option numbers of the courses: 1, 2
+     * or 4.
+     * @param courses
+     * @return 
+     */
+    private static int optionBytes(ArrayList<Course> courses) {
+        int most = 0;
+        for (Course c : courses) {
+            most = Math.max(most, c.getWeekOptions().size());
+        }
+        return most <= 256 ? 1 : most <= 65536 ? 2 : 4;
+    }
+    
+    /**
+     * Reads only the count of a key from the start of a results file, or
+     * returns null if the file is missing, unreadable or holds another key.
+     * The entry is complete if the file holds no timetables.
+     * @param key
+     * @param file
+     * @return 
+     */
+    private static Entry readCount(String key, Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            Entry e = new Entry();
+            e.count = in.readLong();
+            e.complete = in.readInt() < 0;
+            return e;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Reads the entry of a key from a results file, or returns null if the
+     * file is missing, unreadable or holds another key. The timetables are
+     * read for the courses of the provided collection.
+     * @param key
+     * @param u
+     * @param file
+     * @return 
+     */
+    private static Entry read(String key, UserCollection u, Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            // Read whole rather than mapped, so the file can be replaced while the
+            // program runs
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buf.getInt() != MAGIC || buf.getShort() != VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[buf.getShort() & 0xFFFF];
+            buf.get(stored);
+            if (!key.equals(new String(stored, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            Entry e = new Entry();
+            e.count = buf.getLong();
+            int size = buf.getInt();
+            if (size < 0) {
+                return e;
+            }
+            boolean grouped = buf.get() != 0;
+            int width = buf.getInt();
+            int bytes = buf.get();
+            if (width != u.getCourses().size() || bytes != optionBytes(u.getCourses())) {
+                return null;
+            }
+            TimetableResults r = new TimetableResults(u.getCourses());
+            int[] row = new int[width];
+            for (int n = 0; n < size; n++) {
+                for (int i = 0; i < width; i++) {
+                    row[i] = bytes == 1 ? buf.get() & 0xFF : bytes == 2 ? buf.getShort() & 0xFFFF : buf.getInt();
+                }
+                r.add(row, 0, buf.getShort(), buf.getShort(), buf.get(), buf.get());
+            }
+            if (grouped) {
+                r.setGroups(new OptionGroups(u.getCourses()));
+            }
+            e.results = r;
+            return e;
+        } catch (IOException | BufferUnderflowException ex) {
+            return null;
+        }
+    }
+}
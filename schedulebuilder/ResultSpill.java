@@ -0,0 +1,173 @@
+package schedulebuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Rows of a TimetableResults kept in a memory-mapped temporary file instead
+ * of on the heap. Each row is packed as the option index of every course
+ * (one int each) followed by its metrics: total hours and longest day (one
+ * short each), number of days and day mask (one byte each). The file is
+ * mapped in segments of about SEGMENT_BYTES, which are paged in and out by
+ * the operating system, so the heap only holds the segment list no matter
+ * how many rows there are. The file is deleted when the store is closed.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class ResultSpill {
+    
+    // Approximate size of one mapped segment
+    private static final int SEGMENT_BYTES = 64 << 20;
+    
+    private final int width;
+    private final int rowBytes;
+    private final int rowsPerSegment;
+    private final Path file;
+    private final FileChannel channel;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    private int size = 0;
+    
+    /**
+     * Creates an empty store for rows of 'width' courses.
+     * @param width
+     * @throws UncheckedIOException if the temporary file can't be created
+     */
+    public ResultSpill(int width) {
+        this.width = width;
+        this.rowBytes = width * 4 + 6;
+        this.rowsPerSegment = Math.max(1, SEGMENT_BYTES / rowBytes);
+        try {
+            file = Files.createTempFile("schedulebuilder", ".rows");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Returns the number of rows stored.
+     * @return 
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Appends one row whose options are choices[from .. from+width-1].
+     * @param choices
+     * @param from
+     * @param hours
+     * @param longest
+     * @param days
+     * @param mask 
+     */
+    public void add(int[] choices, int from, int hours, int longest, int days, int mask) {
+        int seg = size / rowsPerSegment;
+        if (seg == segments.size()) {
+            map(seg);
+        }
+        MappedByteBuffer buf = segments.get(seg);
+        int pos = (size % rowsPerSegment) * rowBytes;
+        for (int i = 0; i < width; i++) {
+            buf.putInt(pos + i * 4, choices[from + i]);
+        }
+        pos += width * 4;
+        buf.putShort(pos, (short)hours);
+        buf.putShort(pos + 2, (short)longest);
+        buf.put(pos + 4, (byte)days);
+        buf.put(pos + 5, (byte)mask);
+        size += 1;
+    }
+    
+    /**
+     * Returns the option index of one course in one row.
+     * @param row
+     * @param course
+     * @return 
+     */
+    public int getOption(int row, int course) {
+        return segment(row).getInt(offset(row) + course * 4);
+    }
+    
+    /**
+     * Returns the total hours of one row.
+     * @param row
+     * @return 
+     */
+    public int getTotalHours(int row) {
+        return segment(row).getShort(offset(row) + width * 4);
+    }
+    
+    /**
+     * Returns the longest day of one row (hours).
+     * @param row
+     * @return 
+     */
+    public int getLongestDay(int row) {
+        return segment(row).getShort(offset(row) + width * 4 + 2);
+    }
+    
+    /**
+     * Returns the number of days with classes of one row.
+     * @param row
+     * @return 
+     */
+    public int getTotalDays(int row) {
+        return segment(row).get(offset(row) + width * 4 + 4);
+    }
+    
+    /**
+     * Returns the mask of the days of one row which hold classes.
+     * @param row
+     * @return 
+     */
+    public int getDayMask(int row) {
+        return segment(row).get(offset(row) + width * 4 + 5);
+    }
+    
+    /**
+     * Unmaps the segments (as far as Java allows) and deletes the file.
+     */
+    public void close() {
+        segments.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Let the JVM try again when it exits
+            file.toFile().deleteOnExit();
+        }
+    }
+    
+    private MappedByteBuffer segment(int row) {
+        return segments.get(row / rowsPerSegment);
+    }
+    
+    private int offset(int row) {
+        return (row % rowsPerSegment) * rowBytes;
+    }
+    
+    /**
+     * Maps segment 'seg', growing the file to make room for it.
+     * @param seg 
+     */
+    private void map(int seg) {
+        long bytes = (long)rowsPerSegment * rowBytes;
+        try {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, seg * bytes, bytes);
+            buf.order(ByteOrder.nativeOrder());
+            segments.add(buf);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
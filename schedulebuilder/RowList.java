@@ -0,0 +1,56 @@
+package schedulebuilder;
+
+import javafx.collections.ObservableListBase;
+
+/**
+ * A read-only list of row numbers used as the items of the results ListView.
+ * The rows are kept in a plain int array, so a list of a million results costs
+ * a few MB instead of a million Week objects. The ListView only asks for the
+ * rows which are visible, and their Weeks are built when they are selected.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class RowList extends ObservableListBase<Integer> {
+    
+    // The row numbers, in display order
+    private final int[] rows;
+    private final int size;
+    
+    /**
+     * Creates a list holding the first 'n' entries of 'r'.
+     * @param r
+     * @param n 
+     */
+    public RowList(int[] r, int n) {
+        this.rows = r;
+        this.size = n;
+    }
+    
+    /**
+     * Creates a list holding the rows 0 to n-1 in order.
+     * @param n
+     * @return 
+     */
+    public static RowList range(int n) {
+        int[] r = new int[n];
+        for (int i = 0; i < n; i++) {
+            r[i] = i;
+        }
+        return new RowList(r, n);
+    }
+    
+    @Override
+    public Integer get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+        }
+        return rows[index];
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+}
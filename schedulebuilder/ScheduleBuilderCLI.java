@@ -0,0 +1,358 @@
+package schedulebuilder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Command-line entry point which solves .sch files without any user interface.
+ * This class (and everything it uses) stays clear of JavaFX, so it runs on
+ * machines without a display and without starting the JavaFX toolkit.
+ * 
+ * Usage: java schedulebuilder.ScheduleBuilderCLI [options] file.sch...
+ * 
+ *   --days MTWRF   days which may hold classes, MTWRFSU for Monday to Sunday
+ *                  (default: every day of the file's grid)
+ *   --max-hours N  longest allowed day, in hours (default: no limit)
+ *   --max-days N   most days with classes (default: no limit)
+ *   --sort hours|days  sort by fewest total hours (default) or fewest days
+ *   --top K        only print the K best timetables of each file
+ *   --optimal      only print the timetables with the best possible score
+ *   --count        only print the number of valid timetables of each file
+ *   --out FILE     write to FILE instead of standard output
+ *   --sequential   search on one thread instead of all cores (--top always
+ *                  searches on one thread)
+ *   --batch FILE   solve the students listed in FILE against the courses of
+ *                  the .sch files, which together form the catalog
+ *   --seats        with --batch, give each student one timetable so that no
+ *                  section gets more students than it has seats (--top then
+ *                  sets how many timetables of each student are considered)
+ * 
+ * Each file is solved on its own. Its results are printed under a "# file"
+ * line, one timetable per line: rank, total hours, days, then the option
+ * chosen for each course. Options with identical class times are printed
+ * together on one line, separated by '|'.
+ * 
+ * In batch mode each line of the students file is a student name and the
+ * names of the courses they want, separated by tabs (empty lines and lines
+ * starting with '#' are skipped). The results of each student are printed
+ * under a "# student" line, and the students are solved concurrently. With
+ * --seats, one line is printed per student: their name, the rank of the
+ * timetable they got among their own (1 is their best, 0 if they got none)
+ * and the option taken for each course.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class ScheduleBuilderCLI {
+    
+    public static void main(String[] args) {
+        Constraints filters = new Constraints();
+        boolean byHours = true;
+        boolean parallel = true;
+        int top = -1;
+        boolean optimal = false;
+        boolean count = false;
+        String outFile = null;
+        String batchFile = null;
+        boolean seats = false;
+        ArrayList<String> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--days":
+                        filters.setAllowedDays(parseDays(value(args, ++i)));
+                        break;
+                    case "--max-hours":
+                        filters.setMaxHoursPerDay(Integer.parseInt(value(args, ++i)));
+                        break;
+                    case "--max-days":
+                        filters.setMaxDays(Integer.parseInt(value(args, ++i)));
+                        break;
+                    case "--sort":
+                        String sort = value(args, ++i);
+                        if (!sort.equals("hours") && !sort.equals("days")) {
+                            throw new IllegalArgumentException("--sort must be hours or days");
+                        }
+                        byHours = sort.equals("hours");
+                        break;
+                    case "--top":
+                        top = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--optimal":
+                        optimal = true;
+                        break;
+                    case "--count":
+                        count = true;
+                        break;
+                    case "--out":
+                        outFile = value(args, ++i);
+                        break;
+                    case "--batch":
+                        batchFile = value(args, ++i);
+                        break;
+                    case "--seats":
+                        seats = true;
+                        break;
+                    case "--sequential":
+                        parallel = false;
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        files.add(args[i]);
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No .sch files given");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: ScheduleBuilderCLI [--days MTWRF] [--max-hours N] [--max-days N]"
+                    + " [--sort hours|days] [--top K] [--optimal] [--count] [--out FILE] [--sequential] [--batch FILE [--seats]] file.sch...");
+            System.exit(2);
+        }
+        
+        boolean failed = false;
+        try (PrintWriter out = new PrintWriter(openOutput(outFile))) {
+            if (batchFile != null) {
+                failed = !solveBatch(files, batchFile, filters, byHours, top, seats, out);
+            } else {
+                for (String f : files) {
+                    try {
+                        UserCollection u = ScheduleFile.load(Paths.get(f));
+                        out.println("# " + f);
+                        if (count) {
+                            out.println(new TimetableSolver(u, filters).count());
+                            continue;
+                        }
+                        solve(u, filters, byHours, top, optimal, parallel, out);
+                    } catch (IOException e) {
+                        System.err.println("Error loading " + f + ": " + e.getMessage());
+                        failed = true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing " + outFile + ": " + e.getMessage());
+            failed = true;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+    
+    /**
+     * Solves one collection and prints its ranked timetables.
+     * @param u
+     * @param filters
+     * @param byHours
+     * @param top the number of timetables to print, or -1 for all
+     * @param optimal only print the timetables with the best score
+     * @param parallel
+     * @param out 
+     */
+    static void solve(UserCollection u, Constraints filters, boolean byHours, int top,
+            boolean optimal, boolean parallel, PrintWriter out) {
+        TimetableSolver solver = new TimetableSolver(u, filters);
+        solver.setParallel(parallel);
+        // With --top or --optimal only the best timetables are kept, already
+        // in ranked order
+        TimetableResults results;
+        if (optimal) {
+            results = solver.solveOptimal(byHours);
+        } else if (top >= 0) {
+            results = solver.solveBest(top, byHours);
+        } else {
+            results = solver.solve();
+        }
+        print(results, !optimal && top < 0, byHours, out);
+    }
+    
+    /**
+     * Solves the students listed in 'studentsFile' against the catalog made
+     * of the courses of 'catalogFiles', and prints their ranked timetables.
+     * Students whose courses are not all in the catalog are reported and
+     * skipped.
+     * @param catalogFiles
+     * @param studentsFile
+     * @param filters
+     * @param byHours
+     * @param top the number of timetables to print per student, or -1 for all
+     * @param seats assign one timetable per student, within the seats
+     * @param out
+     * @return false if a file could not be read or a student was skipped
+     */
+    static boolean solveBatch(ArrayList<String> catalogFiles, String studentsFile, Constraints filters,
+            boolean byHours, int top, boolean seats, PrintWriter out) {
+        boolean ok = true;
+        ArrayList<UserCollection> collections = new ArrayList<>();
+        for (String f : catalogFiles) {
+            try {
+                collections.add(ScheduleFile.load(Paths.get(f)));
+            } catch (IOException e) {
+                System.err.println("Error loading " + f + ": " + e.getMessage());
+                ok = false;
+            }
+        }
+        CourseCatalog catalog = new CourseCatalog(collections);
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<int[]> selections = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(studentsFile), StandardCharsets.UTF_8)) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                try {
+                    selections.add(catalog.select(Arrays.asList(fields).subList(1, fields.length)));
+                    names.add(fields[0]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping " + fields[0] + ": " + e.getMessage());
+                    ok = false;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading " + studentsFile + ": " + e.getMessage());
+            return false;
+        }
+        if (seats) {
+            assignSeats(catalog, names, selections, filters, byHours,
+                    top > 0 ? top : SeatAssigner.DEFAULT_CANDIDATES, out);
+            return ok;
+        }
+        BatchScheduler batch = new BatchScheduler(catalog);
+        batch.setConstraints(filters);
+        batch.setTop(top, byHours);
+        int[] student = {0};
+        batch.solveAll(selections, (results) -> {
+            out.println("# " + names.get(student[0]++));
+            print(results, top < 0, byHours, out);
+        });
+        return ok;
+    }
+    
+    /**
+     * Gives each student one timetable within the seats of the sections (see
+     * SeatAssigner), and prints it.
+     * @param catalog
+     * @param names
+     * @param selections
+     * @param filters
+     * @param byHours
+     * @param candidates timetables considered per student
+     * @param out 
+     */
+    private static void assignSeats(CourseCatalog catalog, ArrayList<String> names,
+            ArrayList<int[]> selections, Constraints filters, boolean byHours, int candidates,
+            PrintWriter out) {
+        SeatAssigner assigner = new SeatAssigner(catalog);
+        assigner.setConstraints(filters);
+        assigner.setCandidates(candidates, byHours);
+        for (int[] selection : selections) {
+            assigner.addStudent(selection);
+        }
+        assigner.solve();
+        for (int s = 0; s < names.size(); s++) {
+            StringBuilder line = new StringBuilder(names.get(s));
+            line.append('\t').append(assigner.getRank(s) + 1);
+            int[] selection = assigner.getSelection(s);
+            for (int c = 0; c < selection.length && assigner.getRank(s) >= 0; c++) {
+                Course course = catalog.getCourses().get(selection[c]);
+                line.append('\t').append(course.getName()).append('=')
+                        .append(course.getWeekOptions().get(assigner.getSection(s, c)).getName());
+            }
+            out.println(line);
+        }
+    }
+    
+    /**
+     * Prints the timetables of a result list, one per line.
+     * @param results
+     * @param sort true to rank the rows first, false if they already are
+     * @param byHours
+     * @param out 
+     */
+    private static void print(TimetableResults results, boolean sort, boolean byHours, PrintWriter out) {
+        ArrayList<Course> courses = results.getCourses();
+        int n = results.size();
+        int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        if (sort) {
+            Ranking.sort(rows, Ranking.keys(results, rows, n, byHours), n);
+        }
+        for (int i = 0; i < n; i++) {
+            int row = rows[i];
+            StringBuilder line = new StringBuilder();
+            line.append(i + 1).append('\t')
+                    .append(results.getGrid().formatHours(results.getTotalHours(row))).append('\t')
+                    .append(results.getTotalDays(row));
+            for (int c = 0; c < courses.size(); c++) {
+                Course course = courses.get(c);
+                line.append('\t').append(course.getName()).append('=');
+                // Identical options are listed together, as "Week 1|Week 4"
+                int[] alternatives = results.getAlternatives(row, c);
+                for (int a = 0; a < alternatives.length; a++) {
+                    if (a > 0) {
+                        line.append('|');
+                    }
+                    line.append(course.getWeekOptions().get(alternatives[a]).getName());
+                }
+            }
+            out.println(line);
+        }
+    }
+    
+    /**
+     * Returns the argument after an option, or fails if there is none.
+     * @param args
+     * @param i
+     * @return 
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+    
+    /**
+     * Parses a --days value such as "MWF". The filters are carried over to the
+     * grid of each file, so every day a grid can have gets an entry.
+     * @param s
+     * @return 
+     */
+    private static boolean[] parseDays(String s) {
+        boolean[] days = new boolean[TimeGrid.MAX_DAYS];
+        for (char ch : s.toUpperCase().toCharArray()) {
+            int d = TimeGrid.DAY_LETTERS.indexOf(ch);
+            if (d < 0) {
+                throw new IllegalArgumentException("Unknown day '" + ch + "' (use " + TimeGrid.DAY_LETTERS + ")");
+            }
+            days[d] = true;
+        }
+        return days;
+    }
+    
+    /**
+     * Opens the output file, or standard output if none was given.
+     * @param file
+     * @return
+     * @throws IOException 
+     */
+    private static Writer openOutput(String file) throws IOException {
+        if (file == null) {
+            return new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        }
+        return new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,310 @@
+package schedulebuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes UserCollections as .sch files.
+ * 
+ * Files are written in a small versioned binary format instead of Java
+ * serialization (which stores class descriptions and a boxed Integer for every
+ * timeslot of every week). Weeks are stored as their classes, so a week of a
+ * few meetings takes a few bytes however fine the grid is:
+ * 
+ *   int    MAGIC ("SCHB")
+ *   short  VERSION
+ *   byte   days per week
+ *   short  timeslots per day, short minutes per timeslot, short start of the
+ *          first timeslot in minutes after midnight
+ *   int    number of courses, then for each course:
+ *     string course name, int number of options, then for each option:
+ *       string week name
+ *       short  number of classes, then for each class its day (one byte) and
+ *              its first timeslot and the timeslot after its last one (one
+ *              byte each, or a short each on grids of more than 255
+ *              timeslots per day)
+ *       int    number of seats, -1 for no limit
+ * 
+ * Strings are an int byte length (-1 for null) followed by UTF-8 bytes. All
+ * numbers are big-endian. Files saved by older versions with Java
+ * serialization are still read, so they can be opened and saved again.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class ScheduleFile {
+    
+    // "SCHB"
+    public static final int MAGIC = 0x53434842;
+    public static final short VERSION = 1;
+    // First two bytes of a Java serialization stream
+    private static final short SERIAL_MAGIC = (short)0xACED;
+    
+    /**
+     * Writes a UserCollection to a file in the binary format.
+     * @param u
+     * @param file
+     * @throws IOException 
+     */
+    public static void save(UserCollection u, Path file) throws IOException {
+        TimeGrid grid = u.getGrid();
+        boolean wide = grid.getSlotsPerDay() > 255;
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        buf.putInt(MAGIC);
+        buf.putShort(VERSION);
+        buf.put((byte)grid.getDays());
+        buf.putShort((short)grid.getSlotsPerDay());
+        buf.putShort((short)grid.getMinutesPerSlot());
+        buf.putShort((short)grid.getStartMinute());
+        buf.putInt(u.getCourses().size());
+        for (Course c : u.getCourses()) {
+            buf = putString(buf, c.getName());
+            buf = ensure(buf, 4);
+            buf.putInt(c.getWeekOptions().size());
+            for (Week w : c.getWeekOptions()) {
+                buf = putString(buf, w.getName());
+                // A week added from elsewhere may still be on another grid
+                int[] intervals = (w.getGrid().equals(grid) ? w : w.toGrid(grid)).getIntervals();
+                buf = ensure(buf, 2 + intervals.length / 3 * (wide ? 5 : 3));
+                buf.putShort((short)(intervals.length / 3));
+                for (int i = 0; i < intervals.length; i += 3) {
+                    buf.put((byte)intervals[i]);
+                    if (wide) {
+                        buf.putShort((short)intervals[i + 1]);
+                        buf.putShort((short)intervals[i + 2]);
+                    } else {
+                        buf.put((byte)intervals[i + 1]);
+                        buf.put((byte)intervals[i + 2]);
+                    }
+                }
+                buf = ensure(buf, 4);
+                buf.putInt(w.getCapacity());
+            }
+        }
+        buf.flip();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+    
+    /**
+     * Reads a UserCollection from a file, in either the binary format or the
+     * old Java serialization format.
+     * @param file
+     * @return
+     * @throws IOException 
+     */
+    public static UserCollection load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Read onto the heap rather than mapped: a mapping stays until it
+            // is garbage collected, and while it does the file can't be saved
+            // over on Windows. Schedule files are only a few KB.
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Schedule file is too large: " + file);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int)ch.size());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) == -1) {
+                    break;
+                }
+            }
+            buf.flip();
+            if (buf.remaining() >= 2 && buf.getShort(0) == SERIAL_MAGIC) {
+                byte[] data = new byte[buf.remaining()];
+                buf.get(data);
+                return loadSerialized(data);
+            }
+            try {
+                return read(buf);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated schedule file: " + file, e);
+            }
+        }
+    }
+    
+    /**
+     * Parses the binary format.
+     * @param buf
+     * @return
+     * @throws IOException 
+     */
+    private static UserCollection read(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 4 || buf.getInt() != MAGIC) {
+            throw new IOException("Not a schedule file");
+        }
+        short version = buf.getShort();
+        if (version > VERSION) {
+            throw new IOException("Schedule file version " + version + " is newer than this program");
+        }
+        int days = buf.get();
+        TimeGrid grid;
+        try {
+            grid = new TimeGrid(days, buf.getShort(), buf.getShort(), buf.getShort());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Schedule file has an invalid grid: " + e.getMessage());
+        }
+        if (grid.equals(TimeGrid.DEFAULT)) {
+            grid = TimeGrid.DEFAULT;
+        }
+        UserCollection u = new UserCollection();
+        u.setGrid(grid);
+        int courses = buf.getInt();
+        for (int i = 0; i < courses; i++) {
+            Course c = new Course();
+            c.setName(getString(buf));
+            int options = buf.getInt();
+            for (int j = 0; j < options; j++) {
+                Week w = new Week(grid);
+                w.setName(getString(buf));
+                readClasses(buf, w);
+                w.setCapacity(buf.getInt());
+                c.addOption(w);
+            }
+            u.addCourse(c);
+        }
+        return u;
+    }
+    
+    /**
+     * Reads the classes of one week.
+     * @param buf
+     * @param w
+     * @throws IOException 
+     */
+    private static void readClasses(ByteBuffer buf, Week w) throws IOException {
+        boolean wide = w.getGrid().getSlotsPerDay() > 255;
+        int classes = buf.getShort() & 0xFFFF;
+        for (int i = 0; i < classes; i++) {
+            int day = buf.get();
+            int start = wide ? buf.getShort() : buf.get() & 0xFF;
+            int end = wide ? buf.getShort() : buf.get() & 0xFF;
+            try {
+                w.addClass(day, start, end);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt class time in schedule file: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Reads a file saved with Java serialization. Some of the older files were
+     * written by builds whose classes had a different serialVersionUID; if the
+     * fields line up with the current class, the current class is used.
+     * @param data
+     * @return
+     * @throws IOException 
+     */
+    private static UserCollection loadSerialized(byte[] data) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+                ObjectStreamClass stored = super.readClassDescriptor();
+                if (!stored.getName().startsWith("schedulebuilder.")) {
+                    return stored;
+                }
+                ObjectStreamClass local = ObjectStreamClass.lookup(Class.forName(stored.getName()));
+                if (local == null || local.getSerialVersionUID() == stored.getSerialVersionUID()) {
+                    return stored;
+                }
+                if (!sameLayout(stored, local)) {
+                    throw new InvalidClassException(stored.getName(), "incompatible older version");
+                }
+                return local;
+            }
+        }) {
+            return (UserCollection)ois.readObject(); // Returned as Object
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unable to load UserCollection from file!", e);
+        }
+    }
+    
+    /**
+     * Returns true if two class descriptors have fields of the same types in
+     * the same order, so that data written for one can be read with the other.
+     * @param a
+     * @param b
+     * @return 
+     */
+    private static boolean sameLayout(ObjectStreamClass a, ObjectStreamClass b) {
+        ObjectStreamField[] fa = a.getFields(), fb = b.getFields();
+        if (fa.length != fb.length) {
+            return false;
+        }
+        for (int i = 0; i < fa.length; i++) {
+            if (fa[i].getTypeCode() != fb[i].getTypeCode()
+                    || !String.valueOf(fa[i].getTypeString()).equals(String.valueOf(fb[i].getTypeString()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Writes a string, growing the buffer if needed.
+     * @param buf
+     * @param s
+     * @return the buffer (a new one if it had to grow)
+     */
+    private static ByteBuffer putString(ByteBuffer buf, String s) {
+        if (s == null) {
+            buf = ensure(buf, 4);
+            buf.putInt(-1);
+            return buf;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf = ensure(buf, 4 + bytes.length);
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+        return buf;
+    }
+    
+    /**
+     * Reads a string.
+     * @param buf
+     * @return
+     * @throws IOException 
+     */
+    private static String getString(ByteBuffer buf) throws IOException {
+        int n = buf.getInt();
+        if (n == -1) {
+            return null;
+        }
+        if (n < 0 || n > buf.remaining()) {
+            throw new IOException("Corrupt string in schedule file");
+        }
+        byte[] bytes = new byte[n];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Returns a buffer with room for n more bytes: the same one, or a copy
+     * twice as large.
+     * @param buf
+     * @param n
+     * @return 
+     */
+    private static ByteBuffer ensure(ByteBuffer buf, int n) {
+        if (buf.remaining() >= n) {
+            return buf;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+        buf.flip();
+        bigger.put(buf);
+        return bigger;
+    }
+}
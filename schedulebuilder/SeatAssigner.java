@@ -0,0 +1,612 @@
+package schedulebuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.stream.IntStream;
+
+/**
+ * Assigns a timetable to each of many students together, without putting more
+ * students in a section (a week option) than it has seats (see
+ * Week.getCapacity()). Every student's best timetables are worked out first,
+ * concurrently, against a shared CourseCatalog; the assignment then only picks
+ * one of them per student, which is a small problem:
+ *
+ * 1) Students are placed in the order they were added, each in its best
+ *    timetable which still has a seat in every section.
+ * 2) Then every student who is not in their best timetable tries to move to
+ *    a better one which has seats. A student without a timetable may also
+ *    free a seat by moving one student out of a full section, into another
+ *    of that student's timetables (once per solve(), as this is slow).
+ *    Whenever a seat frees up, the students who could use that section are
+ *    queued to try again, until the queue is empty. This ends: every move
+ *    either gives a timetable to one more student, or gives one student a
+ *    better timetable without moving anybody else.
+ *
+ * Sections with identical class times (see OptionGroups) are interchangeable,
+ * so a timetable only needs a free seat in one of them for each course.
+ *
+ * After the assignment, update() changes one student's selection and only
+ * re-solves that student (plus the students who can now use the seats they
+ * gave up), which is much faster than solving everyone again.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class SeatAssigner {
+    
+    // Timetables considered per student by default
+    public static final int DEFAULT_CANDIDATES = 32;
+    
+    private final CourseCatalog catalog;
+    // Filters applied to every student, and how their timetables are ranked
+    private Constraints constraints = new Constraints();
+    private boolean byHours = true;
+    private int candidates = DEFAULT_CANDIDATES;
+    
+    // Seats left in each section, and the students holding a seat in it, by
+    // option id of the catalog's CompatibilityIndex
+    private final int[] free;
+    private final ArrayList<LinkedHashSet<Integer>> holders = new ArrayList<>();
+    // Students with a timetable using each section, by option id
+    private final ArrayList<LinkedHashSet<Integer>> interested = new ArrayList<>();
+    private final ArrayList<Student> students = new ArrayList<>();
+    // Students to look at again, because a section they could use has a seat
+    private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+    private final BitSet queued = new BitSet();
+    // Students who already tried to move others out of full sections
+    private final BitSet evicted = new BitSet();
+    
+    /**
+     * One student's selection, timetables and assignment.
+     */
+    private static class Student {
+        
+        // Catalog course numbers
+        int[] selection;
+        // The student's timetables, best first: for each one and each course,
+        // the ids of the (identical) sections which can be taken
+        int[][][] timetables;
+        // Timetable held (-1 for none), and the section taken for each course
+        int held = -1;
+        int[] taken;
+        
+        Student(int[] selection) {
+            this.selection = selection;
+        }
+    }
+    
+    /**
+     * A student moved out of a section by makeRoom(), and what they held.
+     */
+    private static class Move {
+        
+        final int student;
+        final int held;
+        final int[] taken;
+        
+        Move(int student, int held, int[] taken) {
+            this.student = student;
+            this.held = held;
+            this.taken = taken;
+        }
+    }
+    
+    /**
+     * Creates an assigner for students picking from the provided catalog. The
+     * seats are those of the catalog's week options when this is called.
+     * @param catalog 
+     */
+    public SeatAssigner(CourseCatalog catalog) {
+        this.catalog = catalog;
+        CompatibilityIndex index = catalog.getIndex();
+        ArrayList<Course> courses = catalog.getCourses();
+        free = new int[index.getFirst(courses.size())];
+        for (int c = 0; c < courses.size(); c++) {
+            ArrayList<Week> options = courses.get(c).getWeekOptions();
+            for (int o = 0; o < options.size(); o++) {
+                int seats = options.get(o).getCapacity();
+                free[index.getId(c, o)] = seats == Week.UNLIMITED ? Integer.MAX_VALUE : seats;
+                holders.add(new LinkedHashSet<>());
+                interested.add(new LinkedHashSet<>());
+            }
+        }
+    }
+    
+    /**
+     * Sets the filters applied to every student's timetables. Only affects
+     * timetables worked out afterwards.
+     * @param c 
+     */
+    public void setConstraints(Constraints c) {
+        this.constraints = c;
+    }
+    
+    /**
+     * Sets how many of each student's best timetables are considered, and
+     * whether they are ranked by fewest total hours (true) or fewest days.
+     * Only affects timetables worked out afterwards.
+     * @param k
+     * @param byHours 
+     */
+    public void setCandidates(int k, boolean byHours) {
+        this.candidates = k;
+        this.byHours = byHours;
+    }
+    
+    /**
+     * Adds a student (who is assigned by the next solve()) and returns their
+     * number.
+     * @param selection catalog course numbers (see CourseCatalog.select())
+     * @return 
+     */
+    public int addStudent(int[] selection) {
+        students.add(new Student(selection));
+        return students.size() - 1;
+    }
+    
+    /**
+     * Adds a student wanting the courses of a collection, by name.
+     * @param u
+     * @return
+     * @throws IllegalArgumentException if a course is not in the catalog
+     */
+    public int addStudent(UserCollection u) {
+        ArrayList<String> names = new ArrayList<>();
+        for (Course c : u.getCourses()) {
+            names.add(c.getName());
+        }
+        return addStudent(catalog.select(names));
+    }
+    
+    /**
+     * Assigns every student from scratch. The timetables of students added
+     * since the last solve() are worked out first, in parallel.
+     */
+    public void solve() {
+        IntStream.range(0, students.size()).parallel()
+                .filter((s) -> students.get(s).timetables == null)
+                .forEach((s) -> findTimetables(students.get(s)));
+        for (LinkedHashSet<Integer> set : interested) {
+            set.clear();
+        }
+        evicted.clear();
+        for (int s = 0; s < students.size(); s++) {
+            release(s);
+            listen(s);
+        }
+        for (int s = 0; s < students.size(); s++) {
+            Student st = students.get(s);
+            for (int t = 0; t < st.timetables.length; t++) {
+                if (fits(st, t)) {
+                    take(s, t);
+                    break;
+                }
+            }
+            enqueue(s);
+        }
+        improve();
+    }
+    
+    /**
+     * Changes the selection of one student and re-solves the assignment
+     * around them: the student gives up their seats, is placed again (possibly
+     * moving another student out of a full section), and the other students
+     * get a chance to use the seats which were freed.
+     * @param s
+     * @param selection 
+     */
+    public void update(int s, int[] selection) {
+        Student st = students.get(s);
+        int[] old = st.taken;
+        release(s);
+        forget(s);
+        st.selection = selection;
+        findTimetables(st);
+        listen(s);
+        evicted.clear(s);
+        // The student is placed first, then the others try for the seats
+        queued.set(s);
+        queue.addFirst(s);
+        if (old != null) {
+            freed(old);
+        }
+        improve();
+    }
+    
+    /**
+     * Returns the number of students.
+     * @return 
+     */
+    public int getStudentCount() {
+        return students.size();
+    }
+    
+    /**
+     * Returns the number of students who have a timetable.
+     * @return 
+     */
+    public int getAssignedCount() {
+        int n = 0;
+        for (Student st : students) {
+            if (st.held >= 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * Returns the rank of the timetable a student holds among their own (0 is
+     * their best), or -1 if they have none.
+     * @param s
+     * @return 
+     */
+    public int getRank(int s) {
+        return students.get(s).held;
+    }
+    
+    /**
+     * Returns the catalog course numbers a student selected.
+     * @param s
+     * @return 
+     */
+    public int[] getSelection(int s) {
+        return students.get(s).selection;
+    }
+    
+    /**
+     * Returns the week option a student takes for the c-th course of their
+     * selection, or -1 if they have no timetable.
+     * @param s
+     * @param c
+     * @return 
+     */
+    public int getSection(int s, int c) {
+        Student st = students.get(s);
+        if (st.held < 0) {
+            return -1;
+        }
+        return st.taken[c] - catalog.getIndex().getFirst(st.selection[c]);
+    }
+    
+    /**
+     * Returns the seats left in a section (Integer.MAX_VALUE if unlimited).
+     * @param course catalog course number
+     * @param option
+     * @return 
+     */
+    public int getFree(int course, int option) {
+        return free[catalog.getIndex().getId(course, option)];
+    }
+    
+    /**
+     * Works out a student's best timetables (ignoring seats).
+     * @param st 
+     */
+    private void findTimetables(Student st) {
+        CompatibilityIndex index = catalog.getIndex();
+        TimetableResults r = new TimetableSolver(catalog, st.selection, constraints)
+                .solveBest(candidates, byHours);
+        st.timetables = new int[r.size()][st.selection.length][];
+        for (int row = 0; row < r.size(); row++) {
+            for (int c = 0; c < st.selection.length; c++) {
+                int[] alternatives = r.getAlternatives(row, c);
+                int[] ids = new int[alternatives.length];
+                for (int a = 0; a < ids.length; a++) {
+                    ids[a] = index.getId(st.selection[c], alternatives[a]);
+                }
+                st.timetables[row][c] = ids;
+            }
+        }
+    }
+    
+    /**
+     * Adds student s to the students interested in each section of their
+     * timetables.
+     * @param s 
+     */
+    private void listen(int s) {
+        BitSet seen = new BitSet();
+        for (int[][] timetable : students.get(s).timetables) {
+            for (int[] sections : timetable) {
+                for (int id : sections) {
+                    if (!seen.get(id)) {
+                        seen.set(id);
+                        interested.get(id).add(s);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Removes student s from the students interested in the sections of their
+     * timetables (before the timetables change).
+     * @param s 
+     */
+    private void forget(int s) {
+        // Not worked out yet for students added since the last solve()
+        if (students.get(s).timetables == null) {
+            return;
+        }
+        for (int[][] timetable : students.get(s).timetables) {
+            for (int[] sections : timetable) {
+                for (int id : sections) {
+                    interested.get(id).remove(s);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Queues student s, unless they are queued or already in their best
+     * timetable.
+     * @param s 
+     */
+    private void enqueue(int s) {
+        if (!queued.get(s) && students.get(s).held != 0) {
+            queued.set(s);
+            queue.add(s);
+        }
+    }
+    
+    /**
+     * Queues the students interested in the provided sections which have a
+     * free seat.
+     * @param sections 
+     */
+    private void freed(int[] sections) {
+        for (int id : sections) {
+            if (free[id] > 0) {
+                for (int s : interested.get(id)) {
+                    enqueue(s);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Moves the queued students to better timetables until the queue is empty.
+     */
+    private void improve() {
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            queued.clear(s);
+            Student st = students.get(s);
+            int limit = st.held < 0 ? st.timetables.length : st.held;
+            // Moving others out is only tried once per student, as it is
+            // slow and rarely works a second time
+            boolean evict = st.held < 0 && !evicted.get(s);
+            for (int t = 0; t < limit; t++) {
+                if (moveTo(s, t, evict)) {
+                    break;
+                }
+            }
+            if (evict) {
+                evicted.set(s);
+            }
+        }
+    }
+    
+    /**
+     * Tries to move a student to their timetable t, which must be better
+     * than the one they hold. A student without a timetable may move other
+     * students out of full sections (see makeRoom()), if 'evict' is true.
+     * @param s
+     * @param t
+     * @param evict
+     * @return true if the student now holds timetable t
+     */
+    private boolean moveTo(int s, int t, boolean evict) {
+        Student st = students.get(s);
+        int[] oldTaken = st.taken;
+        ArrayList<Move> moved = new ArrayList<>();
+        if (fits(st, t) || (evict && makeRoom(st, t, moved))) {
+            release(s);
+            take(s, t);
+            if (oldTaken != null) {
+                freed(oldTaken);
+            }
+            for (Move m : moved) {
+                freed(m.taken);
+            }
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Frees a seat for every course of timetable t of a student for which
+     * all sections are full, by moving one of their holders to another of
+     * that holder's timetables. If that can't be done for every course,
+     * nothing is changed.
+     * @param st
+     * @param t
+     * @param moved receives the students moved, and what they held
+     * @return true if timetable t now fits
+     */
+    private boolean makeRoom(Student st, int t, ArrayList<Move> moved) {
+        // Plan a move (holder, timetable) for each full course first, without
+        // changing anything, since most timetables turn out to be hopeless
+        ArrayList<int[]> plan = new ArrayList<>();
+        for (int[] sections : st.timetables[t]) {
+            if (freeSection(sections) >= 0) {
+                continue;
+            }
+            int[] move = null;
+            for (int a = 0; a < sections.length && move == null; a++) {
+                for (int h : holders.get(sections[a])) {
+                    int to = findMove(h, sections[a]);
+                    if (to >= 0 && !isPlanned(plan, h)) {
+                        move = new int[] {h, to};
+                        break;
+                    }
+                }
+            }
+            if (move == null) {
+                return false;
+            }
+            plan.add(move);
+        }
+        // The moves may still get in each other's way (one taking a seat
+        // another one freed), so they are checked again as they are made
+        for (int[] m : plan) {
+            Student h = students.get(m[0]);
+            if (!fits(h, m[1])) {
+                break;
+            }
+            moved.add(new Move(m[0], h.held, h.taken));
+            release(m[0]);
+            take(m[0], m[1]);
+        }
+        if (fits(st, t)) {
+            return true;
+        }
+        for (int m = moved.size() - 1; m >= 0; m--) {
+            release(moved.get(m).student);
+        }
+        for (Move m : moved) {
+            take(m.student, m.held);
+        }
+        moved.clear();
+        return false;
+    }
+    
+    /**
+     * Returns true if student h already has a move in the plan.
+     * @param plan
+     * @param h
+     * @return 
+     */
+    private static boolean isPlanned(ArrayList<int[]> plan, int h) {
+        for (int[] m : plan) {
+            if (m[0] == h) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns another of student h's timetables which has seats and which
+     * would leave a seat free in section 'id', or -1 if there is none.
+     * @param h
+     * @param id
+     * @return 
+     */
+    private int findMove(int h, int id) {
+        Student st = students.get(h);
+        for (int t = 0; t < st.timetables.length; t++) {
+            if (t != st.held && fits(st, t) && leavesSeat(st, t, id)) {
+                return t;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns true if section 'id' would still have a free seat after the
+     * student moved to their timetable t (which must fit).
+     * @param st
+     * @param t
+     * @param id
+     * @return 
+     */
+    private boolean leavesSeat(Student st, int t, int id) {
+        int seats = free[id];
+        for (int c = 0; c < st.selection.length; c++) {
+            if (st.held >= 0 && st.taken[c] == id) {
+                seats++;
+            }
+            if (freeSection(st, c, st.timetables[t][c]) == id) {
+                seats--;
+            }
+        }
+        return seats > 0;
+    }
+    
+    /**
+     * Returns true if every course of timetable t has a free seat, counting
+     * the seats the student holds as free.
+     * @param st
+     * @param t
+     * @return 
+     */
+    private boolean fits(Student st, int t) {
+        for (int c = 0; c < st.selection.length; c++) {
+            if (freeSection(st, c, st.timetables[t][c]) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the first of the (identical) sections with a free seat, or -1.
+     * @param sections
+     * @return 
+     */
+    private int freeSection(int[] sections) {
+        for (int id : sections) {
+            if (free[id] > 0) {
+                return id;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the section a student would take for course c from the provided
+     * (identical) sections, if they gave up their seats first, or -1.
+     * @param st
+     * @param c
+     * @param sections
+     * @return 
+     */
+    private int freeSection(Student st, int c, int[] sections) {
+        for (int id : sections) {
+            if (free[id] > 0 || (st.held >= 0 && st.taken[c] == id)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Gives student s a seat in every course of their timetable t, which
+     * must fit.
+     * @param s
+     * @param t 
+     */
+    private void take(int s, int t) {
+        Student st = students.get(s);
+        st.held = t;
+        st.taken = new int[st.selection.length];
+        for (int c = 0; c < st.taken.length; c++) {
+            int id = freeSection(st.timetables[t][c]);
+            st.taken[c] = id;
+            free[id]--;
+            holders.get(id).add(s);
+        }
+    }
+    
+    /**
+     * Gives up the seats of student s, if they hold a timetable.
+     * @param s 
+     */
+    private void release(int s) {
+        Student st = students.get(s);
+        if (st.held < 0) {
+            return;
+        }
+        for (int id : st.taken) {
+            free[id]++;
+            holders.get(id).remove(s);
+        }
+        st.held = -1;
+        st.taken = null;
+    }
+}
@@ -0,0 +1,511 @@
+package schedulebuilder;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The layout of the timeslots of a week: how many days it has, how many
+ * timeslots each day is split into, how long a timeslot is and when the first
+ * one starts. The original grid (DEFAULT) is Monday to Friday in 13 hourly
+ * slots from 7:00, but a grid can also be finer (eg. 15 minute slots) or
+ * include the weekend.
+ *
+ * The grid also decides the layout of the occupancy bitmaps of Weeks: each
+ * day gets getWordsPerDay() longs, one bit per timeslot, and the days follow
+ * each other (day d starts at long d * getWordsPerDay()). On the default grid
+ * this is one long per day. Bitmaps of the same grid can be compared, ORed
+ * and ANDed long by long without knowing where the days start; the metrics
+ * (span of a day, days used, etc.) are worked out by the grid. Lengths are
+ * counted in timeslots, which are hours on the default grid.
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public final class TimeGrid {
+    
+    // Most days per week (day masks are kept in a byte)
+    public static final int MAX_DAYS = 7;
+    // Monday to Friday, 7:00 to 20:00 in hourly slots
+    public static final TimeGrid DEFAULT = new TimeGrid(5, 13, 60, 7 * 60);
+    // Day names and the letters used for them on the command line
+    private static final String[] DAY_NAMES = {"Monday", "Tuesday", "Wednesday", "Thursday",
+        "Friday", "Saturday", "Sunday"};
+    public static final String DAY_LETTERS = "MTWRFSU";
+    
+    private final int days;
+    private final int slotsPerDay;
+    private final int minutesPerSlot;
+    // Start of the first slot of a day, in minutes after midnight
+    private final int startMinute;
+    // Longs per day in an occupancy bitmap
+    private final int words;
+    
+    /**
+     * Creates a grid.
+     * @param days days per week, Monday first
+     * @param slotsPerDay
+     * @param minutesPerSlot
+     * @param startMinute start of the first slot, in minutes after midnight
+     * @throws IllegalArgumentException if the grid is empty, has more than
+     * MAX_DAYS days, does not fit in one day, or its slots neither divide an
+     * hour nor are a whole number of hours
+     */
+    public TimeGrid(int days, int slotsPerDay, int minutesPerSlot, int startMinute) {
+        if (days < 1 || days > MAX_DAYS) {
+            throw new IllegalArgumentException("A week has 1 to " + MAX_DAYS + " days, not " + days);
+        }
+        if (slotsPerDay < 1 || minutesPerSlot < 1 || startMinute < 0
+                || startMinute + slotsPerDay * minutesPerSlot > 24 * 60) {
+            throw new IllegalArgumentException("The timeslots of a day must fit between 0:00 and 24:00");
+        }
+        // Otherwise the slots drift against the hours the grid is labelled in
+        if (60 % minutesPerSlot != 0 && minutesPerSlot % 60 != 0) {
+            throw new IllegalArgumentException("A timeslot must divide an hour or be a whole number of hours, not "
+                    + minutesPerSlot + " minutes");
+        }
+        this.days = days;
+        this.slotsPerDay = slotsPerDay;
+        this.minutesPerSlot = minutesPerSlot;
+        this.startMinute = startMinute;
+        this.words = (slotsPerDay + 63) / 64;
+    }
+    
+    /**
+     * Parses a grid written as "days,minutes,start-end", eg. "7,15,8:00-22:00"
+     * for the whole week in 15 minute slots from 8:00 to 22:00. This is the
+     * same format toString() returns.
+     * @param s
+     * @return
+     * @throws IllegalArgumentException if the text is not a valid grid 
+     */
+    public static TimeGrid parse(String s) {
+        String[] parts = s.trim().split(",");
+        String[] range = parts.length == 3 ? parts[2].split("-") : new String[0];
+        if (range.length != 2) {
+            throw new IllegalArgumentException("A grid is written as days,minutes,start-end (eg. 5,60,7:00-20:00)");
+        }
+        try {
+            int minutes = Integer.parseInt(parts[1].trim());
+            int start = parseTime(range[0]), end = parseTime(range[1]);
+            if (minutes < 1 || end <= start || (end - start) % minutes != 0) {
+                throw new IllegalArgumentException("The day " + parts[2].trim()
+                        + " can't be split into " + minutes + " minute slots");
+            }
+            return new TimeGrid(Integer.parseInt(parts[0].trim()), (end - start) / minutes, minutes, start);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a grid: " + s);
+        }
+    }
+    
+    /**
+     * Parses a time of day such as "8:00" or "22:30", in minutes after midnight.
+     * @param s
+     * @return 
+     */
+    private static int parseTime(String s) {
+        String[] hm = s.trim().split(":");
+        if (hm.length != 2) {
+            throw new NumberFormatException(s);
+        }
+        return Integer.parseInt(hm[0]) * 60 + Integer.parseInt(hm[1]);
+    }
+    
+    /**
+     * Returns the grid of the weeks of a list of courses (the grid of the
+     * first week found), or DEFAULT if there are none.
+     * @param courses
+     * @return 
+     */
+    public static TimeGrid of(List<Course> courses) {
+        for (Course c : courses) {
+            if (!c.getWeekOptions().isEmpty()) {
+                return c.getWeekOptions().get(0).getGrid();
+            }
+        }
+        return DEFAULT;
+    }
+    
+    /**
+     * Returns the number of days per week.
+     * @return 
+     */
+    public int getDays() {
+        return days;
+    }
+    
+    /**
+     * Returns the number of timeslots per day.
+     * @return 
+     */
+    public int getSlotsPerDay() {
+        return slotsPerDay;
+    }
+    
+    /**
+     * Returns the length of one timeslot, in minutes.
+     * @return 
+     */
+    public int getMinutesPerSlot() {
+        return minutesPerSlot;
+    }
+    
+    /**
+     * Returns the start of the first timeslot of a day, in minutes after
+     * midnight.
+     * @return 
+     */
+    public int getStartMinute() {
+        return startMinute;
+    }
+    
+    /**
+     * Returns the number of longs one day takes in an occupancy bitmap.
+     * @return 
+     */
+    public int getWordsPerDay() {
+        return words;
+    }
+    
+    /**
+     * Returns the number of longs in an occupancy bitmap.
+     * @return 
+     */
+    public int getLength() {
+        return days * words;
+    }
+    
+    /**
+     * Returns the number of whole hours a day of this grid covers, rounded up
+     * (the longest day the filters can ask for).
+     * @return 
+     */
+    public int getHoursPerDay() {
+        return (slotsPerDay * minutesPerSlot + 59) / 60;
+    }
+    
+    /**
+     * Returns the name of a day ("Monday" for day 0).
+     * @param day
+     * @return 
+     */
+    public String getDayName(int day) {
+        return DAY_NAMES[day];
+    }
+    
+    /**
+     * Returns the time a timeslot starts at, as shown on the grid (12-hour
+     * clock, eg. "1:30").
+     * @param slot
+     * @return 
+     */
+    public String getTimeLabel(int slot) {
+        int minute = startMinute + slot * minutesPerSlot;
+        int hour = (minute / 60) % 12;
+        return (hour == 0 ? 12 : hour) + ":" + (minute % 60 < 10 ? "0" : "") + minute % 60;
+    }
+    
+    /**
+     * Returns true if a timeslot starts on the hour.
+     * @param slot
+     * @return 
+     */
+    public boolean isOnTheHour(int slot) {
+        return (startMinute + slot * minutesPerSlot) % 60 == 0;
+    }
+    
+    /**
+     * Returns a length in timeslots as hours, eg. "3" or "2.75".
+     * @param slots
+     * @return 
+     */
+    public String formatHours(int slots) {
+        int minutes = slots * minutesPerSlot;
+        if (minutes % 60 == 0) {
+            return Integer.toString(minutes / 60);
+        }
+        return Double.toString(minutes / 60.0);
+    }
+    
+    /**
+     * Returns the bit (index into the whole bitmap) of one timeslot.
+     * @param day
+     * @param slot
+     * @return 
+     */
+    public int bitOf(int day, int slot) {
+        return day * words * 64 + slot;
+    }
+    
+    /**
+     * Returns true if the timeslot is set in the bitmap.
+     * @param bits
+     * @param day
+     * @param slot
+     * @return 
+     */
+    public boolean isSet(long[] bits, int day, int slot) {
+        int b = bitOf(day, slot);
+        return (bits[b >>> 6] & (1L << b)) != 0;
+    }
+    
+    /**
+     * Sets or clears one timeslot of a bitmap.
+     * @param bits
+     * @param day
+     * @param slot
+     * @param on 
+     */
+    public void set(long[] bits, int day, int slot, boolean on) {
+        int b = bitOf(day, slot);
+        if (on) {
+            bits[b >>> 6] |= 1L << b;
+        } else {
+            bits[b >>> 6] &= ~(1L << b);
+        }
+    }
+    
+    /**
+     * Sets the timeslots from .. to-1 of one day of a bitmap, a long at a
+     * time.
+     * @param bits
+     * @param day
+     * @param from
+     * @param to 
+     */
+    public void setRange(long[] bits, int day, int from, int to) {
+        while (from < to) {
+            int b = bitOf(day, from);
+            int n = Math.min(to - from, 64 - (b & 63));
+            bits[b >>> 6] |= n == 64 ? -1L : ((1L << n) - 1) << b;
+            from += n;
+        }
+    }
+    
+    /**
+     * Returns the classes of a bitmap as intervals: the runs of consecutive
+     * occupied timeslots, as {day, start, end} triples (the end timeslot not
+     * included) ordered by day and start. A week of a few meetings gives a
+     * few triples however fine the grid is, and the runs are found a long at
+     * a time rather than a timeslot at a time.
+     * @param bits
+     * @return 
+     */
+    public int[] intervals(long[] bits) {
+        int[] out = new int[24];
+        int n = 0;
+        for (int d = 0; d < days; d++) {
+            // Start of the run being scanned, -1 between runs
+            int start = -1;
+            for (int w = 0; w < words; w++) {
+                long b = bits[d * words + w];
+                int pos = 0;
+                while (pos < 64) {
+                    // Look for the next set bit, or the next clear one to end a run
+                    long rest = (start < 0 ? b : ~b) >>> pos;
+                    if (rest == 0) {
+                        break;
+                    }
+                    pos += Long.numberOfTrailingZeros(rest);
+                    if (start < 0) {
+                        start = w * 64 + pos;
+                        continue;
+                    }
+                    if (n == out.length) {
+                        out = Arrays.copyOf(out, n * 2);
+                    }
+                    out[n++] = d;
+                    out[n++] = start;
+                    out[n++] = w * 64 + pos;
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                // A run reaching the last bit of the day
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, n * 2);
+                }
+                out[n++] = d;
+                out[n++] = start;
+                out[n++] = words * 64;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+    
+    /**
+     * Returns true if one day of the bitmap holds a class.
+     * @param bits
+     * @param day
+     * @return 
+     */
+    public boolean hasClasses(long[] bits, int day) {
+        for (int w = day * words; w < day * words + words; w++) {
+            if (bits[w] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the first occupied timeslot of one day, or -1 if it is empty.
+     * @param bits
+     * @param day
+     * @return 
+     */
+    public int first(long[] bits, int day) {
+        for (int w = 0; w < words; w++) {
+            long b = bits[day * words + w];
+            if (b != 0) {
+                return w * 64 + Long.numberOfTrailingZeros(b);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the last occupied timeslot of one day, or -1 if it is empty.
+     * @param bits
+     * @param day
+     * @return 
+     */
+    public int last(long[] bits, int day) {
+        for (int w = words - 1; w >= 0; w--) {
+            long b = bits[day * words + w];
+            if (b != 0) {
+                return w * 64 + 63 - Long.numberOfLeadingZeros(b);
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the timeslots spanned by one day of a bitmap, from the first
+     * class to the end of the last one (0 for an empty day).
+     * @param bits
+     * @param day
+     * @return 
+     */
+    public int span(long[] bits, int day) {
+        if (words == 1) {
+            return span(bits[day]);
+        }
+        int f = first(bits, day);
+        return f < 0 ? 0 : last(bits, day) - f + 1;
+    }
+    
+    /**
+     * Returns the timeslots one day would span if the classes of two bitmaps
+     * were put together, without building the merged bitmap.
+     * @param a
+     * @param b
+     * @param day
+     * @return 
+     */
+    public int span(long[] a, long[] b, int day) {
+        if (words == 1) {
+            return span(a[day] | b[day]);
+        }
+        int fa = first(a, day), fb = first(b, day);
+        if (fa < 0 || fb < 0) {
+            return fa < 0 ? span(b, day) : span(a, day);
+        }
+        return Math.max(last(a, day), last(b, day)) - Math.min(fa, fb) + 1;
+    }
+    
+    /**
+     * Returns the timeslots spanned by a single long of a one-word day.
+     * @param bits
+     * @return 
+     */
+    private static int span(long bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        return 64 - Long.numberOfLeadingZeros(bits) - Long.numberOfTrailingZeros(bits);
+    }
+    
+    /**
+     * Returns the longest day of a bitmap, in timeslots.
+     * @param bits
+     * @return 
+     */
+    public int longestDay(long[] bits) {
+        int longest = 0;
+        for (int d = 0; d < days; d++) {
+            longest = Math.max(longest, span(bits, d));
+        }
+        return longest;
+    }
+    
+    /**
+     * Returns the total length of the days of a bitmap, in timeslots,
+     * including time between classes.
+     * @param bits
+     * @return 
+     */
+    public int totalSlots(long[] bits) {
+        int total = 0;
+        for (int d = 0; d < days; d++) {
+            total += span(bits, d);
+        }
+        return total;
+    }
+    
+    /**
+     * Returns a mask of the days of a bitmap which hold classes (bit 0 =
+     * Monday).
+     * @param bits
+     * @return 
+     */
+    public int dayMask(long[] bits) {
+        int mask = 0;
+        for (int d = 0; d < days; d++) {
+            if (hasClasses(bits, d)) {
+                mask |= 1 << d;
+            }
+        }
+        return mask;
+    }
+    
+    /**
+     * Returns the number of days of a bitmap which hold classes.
+     * @param bits
+     * @return 
+     */
+    public int totalDays(long[] bits) {
+        return Integer.bitCount(dayMask(bits));
+    }
+    
+    /**
+     * Two grids are equal if their timeslots are the same.
+     * @param o
+     * @return 
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TimeGrid)) {
+            return false;
+        }
+        TimeGrid g = (TimeGrid)o;
+        return days == g.days && slotsPerDay == g.slotsPerDay
+                && minutesPerSlot == g.minutesPerSlot && startMinute == g.startMinute;
+    }
+    
+    @Override
+    public int hashCode() {
+        return ((days * 31 + slotsPerDay) * 31 + minutesPerSlot) * 31 + startMinute;
+    }
+    
+    /**
+     * Returns the grid in the format parse() reads, eg. "5,60,7:00-20:00".
+     * @return 
+     */
+    @Override
+    public String toString() {
+        int end = startMinute + slotsPerDay * minutesPerSlot;
+        return days + "," + minutesPerSlot + "," + startMinute / 60 + ":" + (startMinute % 60 < 10 ? "0" : "")
+                + startMinute % 60 + "-" + end / 60 + ":" + (end % 60 < 10 ? "0" : "") + end % 60;
+    }
+}
@@ -0,0 +1,368 @@
+package schedulebuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compact list of valid timetables. Instead of one full Week per timetable,
+ * each row only stores the option chosen for every course (one int per course).
+ * The Week for a row is built on demand
+ * with getWeek(), ie. when it is displayed. The metrics used for filtering and
+ * sorting are worked out once per row, when it is added.
+ * 
+ * With a spill threshold set, the rows are moved to a memory-mapped temporary
+ * file (see ResultSpill) once there are more than that many, so very large
+ * result sets don't have to fit on the heap. close() deletes the file.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class TimetableResults {
+    
+    // The courses the option numbers refer to, and the grid of their weeks
+    private final ArrayList<Course> courses;
+    private final TimeGrid grid;
+    // Number of courses (ints per row)
+    private final int width;
+    // Row r holds its options in choices[r*width .. r*width+width-1]
+    private int[] choices;
+    // Metrics of each row: total hours and longest day (in timeslots of the
+    // grid), number of days and which days hold classes (bit 0 = Monday)
+    private short[] totalHours;
+    private short[] longestDay;
+    private byte[] totalDays;
+    private byte[] dayMask;
+    // Groups of identical options which the rows' options stand for (null if
+    // every row is a single timetable)
+    private OptionGroups groups;
+    // Number of rows there is room for
+    private int capacity = 16;
+    private int size = 0;
+    // Most rows kept on the heap (-1 for no limit), and the file holding all
+    // the rows once there are more
+    private int spillThreshold = -1;
+    private ResultSpill spill;
+    
+    /**
+     * Creates an empty result list for the provided courses.
+     * @param c 
+     */
+    public TimetableResults(ArrayList<Course> c) {
+        this.courses = c;
+        this.grid = TimeGrid.of(c);
+        this.width = c.size();
+        this.choices = new int[Math.max(width, 1) * 16];
+        this.totalHours = new short[16];
+        this.longestDay = new short[16];
+        this.totalDays = new byte[16];
+        this.dayMask = new byte[16];
+    }
+    
+    /**
+     * Returns the number of timetables.
+     * @return 
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Returns the courses the option numbers refer to.
+     * @return 
+     */
+    public ArrayList<Course> getCourses() {
+        return courses;
+    }
+    
+    /**
+     * Returns the grid the timetables are laid out on.
+     * @return 
+     */
+    public TimeGrid getGrid() {
+        return grid;
+    }
+    
+    /**
+     * Adds a timetable. The choice array is copied, so the caller may reuse it.
+     * @param choice the option index of each course
+     * @param s the occupancy bitmap of the full timetable
+     */
+    public void add(int[] choice, long[] s) {
+        add(choice, 0, grid.totalSlots(s), grid.longestDay(s), grid.totalDays(s), grid.dayMask(s));
+    }
+    
+    /**
+     * Adds a row whose options are choices[from .. from+width-1], with its
+     * metrics already worked out.
+     * @param choices
+     * @param from
+     * @param hours
+     * @param longest
+     * @param days
+     * @param mask 
+     */
+    void add(int[] choices, int from, int hours, int longest, int days, int mask) {
+        if (spill != null) {
+            spill.add(choices, from, hours, longest, days, mask);
+            size += 1;
+            return;
+        }
+        grow(size + 1);
+        System.arraycopy(choices, from, this.choices, size * width, width);
+        totalHours[size] = (short)hours;
+        longestDay[size] = (short)longest;
+        totalDays[size] = (byte)days;
+        dayMask[size] = (byte)mask;
+        size += 1;
+        if (spillThreshold >= 0 && size > spillThreshold) {
+            spillRows();
+        }
+    }
+    
+    /**
+     * Adds a timetable, working out its occupancy bitmap from the options.
+     * @param choice the option index of each course
+     */
+    public void add(int[] choice) {
+        long[] s = new long[grid.getLength()];
+        for (int i = 0; i < width; i++) {
+            long[] option = courses.get(i).getWeekOptions().get(choice[i]).getSlots();
+            for (int w = 0; w < s.length; w++) {
+                s[w] |= option[w];
+            }
+        }
+        add(choice, s);
+    }
+    
+    /**
+     * Appends every timetable of another result list (for the same courses).
+     * @param other 
+     */
+    public void addAll(TimetableResults other) {
+        if (spill != null || other.spill != null
+                || (spillThreshold >= 0 && size + other.size > spillThreshold)) {
+            // Row by row, so the rows end up in the spill file
+            int[] row = new int[width];
+            for (int r = 0; r < other.size; r++) {
+                for (int i = 0; i < width; i++) {
+                    row[i] = other.getOption(r, i);
+                }
+                add(row, 0, other.getTotalHours(r), other.getLongestDay(r),
+                        other.getTotalDays(r), other.getDayMask(r));
+            }
+            return;
+        }
+        grow(size + other.size);
+        System.arraycopy(other.choices, 0, choices, size * width, other.size * width);
+        System.arraycopy(other.totalHours, 0, totalHours, size, other.size);
+        System.arraycopy(other.longestDay, 0, longestDay, size, other.size);
+        System.arraycopy(other.totalDays, 0, totalDays, size, other.size);
+        System.arraycopy(other.dayMask, 0, dayMask, size, other.size);
+        size += other.size;
+    }
+    
+    /**
+     * Returns the option index chosen for one course in one row.
+     * @param row
+     * @param course
+     * @return 
+     */
+    public int getOption(int row, int course) {
+        if (spill != null) {
+            return spill.getOption(row, course);
+        }
+        return choices[row * width + course];
+    }
+    
+    /**
+     * Sets the groups of identical options the rows were found with. Each row
+     * then stands for every combination of the options in its groups.
+     * @param g 
+     */
+    public void setGroups(OptionGroups g) {
+        this.groups = g;
+    }
+    
+    /**
+     * Returns the groups of identical options the rows were found with, or
+     * null.
+     * @return 
+     */
+    public OptionGroups getGroups() {
+        return groups;
+    }
+    
+    /**
+     * Returns a copy of these rows for other courses with the same week
+     * options (eg. another copy of the same collection), so that getWeek()
+     * and getCourses() refer to those courses. The rows must be on the heap.
+     * @param c
+     * @return 
+     */
+    public TimetableResults copyFor(ArrayList<Course> c) {
+        TimetableResults r = new TimetableResults(c);
+        r.addAll(this);
+        r.groups = groups;
+        return r;
+    }
+    
+    /**
+     * Returns the number of timetables one row stands for (1 unless the rows
+     * hold groups of identical options).
+     * @param row
+     * @return 
+     */
+    public long getVariants(int row) {
+        long n = 1;
+        if (groups != null) {
+            for (int i = 0; i < width; i++) {
+                n *= groups.getMembers(i, getOption(row, i)).length;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * Returns every option of one course which one row stands for: the option
+     * returned by getOption(), plus the options identical to it.
+     * @param row
+     * @param course
+     * @return 
+     */
+    public int[] getAlternatives(int row, int course) {
+        if (groups == null) {
+            return new int[] {getOption(row, course)};
+        }
+        return groups.getMembers(course, getOption(row, course));
+    }
+    
+    /**
+     * Returns the total hours of one row, including time between classes, in
+     * timeslots of the grid.
+     * @param row
+     * @return 
+     */
+    public int getTotalHours(int row) {
+        if (spill != null) {
+            return spill.getTotalHours(row);
+        }
+        return totalHours[row];
+    }
+    
+    /**
+     * Returns the longest day of one row (in timeslots of the grid).
+     * @param row
+     * @return 
+     */
+    public int getLongestDay(int row) {
+        if (spill != null) {
+            return spill.getLongestDay(row);
+        }
+        return longestDay[row];
+    }
+    
+    /**
+     * Returns the number of days with classes of one row.
+     * @param row
+     * @return 
+     */
+    public int getTotalDays(int row) {
+        if (spill != null) {
+            return spill.getTotalDays(row);
+        }
+        return totalDays[row];
+    }
+    
+    /**
+     * Returns a mask of the days of one row which hold classes (bit 0 = Monday).
+     * @param row
+     * @return 
+     */
+    public int getDayMask(int row) {
+        if (spill != null) {
+            return spill.getDayMask(row);
+        }
+        return dayMask[row];
+    }
+    
+    /**
+     * Builds the full timetable of one row. Each timeslot holds the number of
+     * its course (first course = 1).
+     * @param row
+     * @return 
+     */
+    public Week getWeek(int row) {
+        Week w = new Week(grid);
+        for (int i = 0; i < width; i++) {
+            Week option = courses.get(i).getWeekOptions().get(getOption(row, i));
+            w = w.merge(option, i+1);
+        }
+        w.setName("Week " + (row+1));
+        return w;
+    }
+    
+    /**
+     * Sets the most rows kept on the heap. Once there are more, every row is
+     * moved to a memory-mapped temporary file. -1 (the default) keeps all
+     * rows on the heap.
+     * @param rows 
+     */
+    public void setSpillThreshold(int rows) {
+        this.spillThreshold = rows;
+        if (rows >= 0 && size > rows && spill == null) {
+            spillRows();
+        }
+    }
+    
+    /**
+     * Returns true if the rows are kept in a temporary file.
+     * @return 
+     */
+    public boolean isSpilled() {
+        return spill != null;
+    }
+    
+    /**
+     * Deletes the temporary file, if the rows were moved to one. The rows
+     * can't be used any more afterwards.
+     */
+    public void close() {
+        if (spill != null) {
+            spill.close();
+        }
+    }
+    
+    /**
+     * Moves the rows from the heap to a new ResultSpill.
+     */
+    private void spillRows() {
+        ResultSpill s = new ResultSpill(width);
+        for (int r = 0; r < size; r++) {
+            s.add(choices, r * width, totalHours[r], longestDay[r], totalDays[r], dayMask[r]);
+        }
+        spill = s;
+        capacity = 0;
+        choices = null;
+        totalHours = null;
+        longestDay = null;
+        totalDays = null;
+        dayMask = null;
+    }
+    
+    /**
+     * Makes sure there is room for 'rows' rows.
+     * @param rows 
+     */
+    private void grow(int rows) {
+        if (rows > capacity) {
+            int n = Math.max(rows, capacity * 2);
+            capacity = n;
+            totalHours = Arrays.copyOf(totalHours, n);
+            longestDay = Arrays.copyOf(longestDay, n);
+            totalDays = Arrays.copyOf(totalDays, n);
+            dayMask = Arrays.copyOf(dayMask, n);
+            choices = Arrays.copyOf(choices, n * Math.max(width, 1));
+        }
+    }
+}
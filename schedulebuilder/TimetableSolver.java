@@ -0,0 +1,1220 @@
+package schedulebuilder;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds every valid (conflict-free) timetable for a UserCollection. Instead of
+ * building all partial timetables course by course, the solver walks the
+ * options depth-first and backtracks as soon as a partial timetable conflicts
+ * or breaks one of the Constraints. Only complete timetables are stored, as
+ * rows of a TimetableResults (one option index per course), so the working
+ * memory is one bitmap per course: partial[i] holds the timetable made of
+ * courses i and up.
+ * 
+ * Unless turned off, the courses are first reordered so that the most
+ * constrained ones are searched first (see orderCourses()). Results are
+ * mapped back to the original course numbering, so callers never see the
+ * search order. Options with identical class times are also only searched
+ * once (see OptionGroups).
+ * 
+ * Conflicts are not found by comparing grids. A CompatibilityIndex is built
+ * once per search, and each level keeps the set of options (of the courses
+ * still to pick) which are compatible with everything picked so far. Picking
+ * an option ANDs its compatibility row into that set, and if some remaining
+ * course is left without options the branch is dropped right there. A solver
+ * made for a selection of a CourseCatalog takes its index (and option groups)
+ * from the catalog instead of building them.
+ * 
+ * In parallel mode the options of the first PARALLEL_DEPTH courses searched
+ * are split into ForkJoin tasks. Each task searches its own subtree and the
+ * results are joined in option order, so the output is identical to the
+ * sequential search.
+ * 
+ * A Listener can be attached to follow the search while it runs (timetables
+ * found and fraction done), and cancel() stops it early. Both are meant for
+ * running the solver off the JavaFX Application Thread.
+ * 
+ * Besides solve(), which collects everything, iterator() and stream() walk
+ * the same search lazily, one timetable at a time, for callers which only
+ * want the first few results. solveBest() only keeps the K best timetables
+ * of a ranking, and skips every branch which can't beat the K-th best found
+ * so far; solveOptimal() returns every timetable with the best possible
+ * score. Both prune with a lower bound of the score worked out from the
+ * cheapest options left for the remaining courses. count() only counts the
+ * valid timetables, without storing any. Nothing in this class depends on
+ * JavaFX.
+ * 
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class TimetableSolver {
+    
+    // Number of search levels which are split into separate ForkJoin tasks
+    private static final int PARALLEL_DEPTH = 2;
+    // Most partial timetables remembered by count()
+    private static final int COUNT_MEMO_LIMIT = 1 << 20;
+    
+    // The courses being combined, in the order given, and the grid of their
+    // weeks
+    private final ArrayList<Course> original;
+    private final TimeGrid grid;
+    // The catalog the courses were selected from, and the catalog number of
+    // each (null if the solver was made for a UserCollection)
+    private CourseCatalog catalog;
+    private int[] selection;
+    // The same courses in the order they are searched, and the original
+    // number of each (see orderCourses())
+    private ArrayList<Course> courses;
+    private int[] order;
+    // Whether to reorder the courses before searching
+    private boolean ordering = true;
+    // Whether to search only one of each group of identical options, and the
+    // groups (in the original course numbering)
+    private boolean grouping = true;
+    private OptionGroups groups;
+    // Most result rows kept on the heap (-1 for no limit)
+    private int spillThreshold = -1;
+    // Filters applied while searching (no limits by default)
+    private Constraints constraints;
+    // Whether to spread the search across all CPU cores
+    private boolean parallel = false;
+    
+    // Receives found timetables and progress (may be null)
+    private Listener listener;
+    // Conflict information for the courses (built at the start of each solve)
+    private CompatibilityIndex index;
+    // Occupancy bitmap and day mask of every option, by option id
+    private long[][] optionSlots;
+    private int[] optionDays;
+    
+    // Set by cancel(), checked at every node of the search
+    private volatile boolean cancelled = false;
+    // Fraction of the search tree which has been fully explored
+    private final DoubleAdder done = new DoubleAdder();
+    
+    /**
+     * Receives updates from a running search. The methods are called from the
+     * searching thread(s), not from the JavaFX Application Thread.
+     */
+    public interface Listener {
+        
+        /**
+         * Called every time a complete, valid timetable is found. The choice
+         * array is reused by the search, so copy it if it has to be kept.
+         * @param choice the option index of each course
+         * @param slots the occupancy bitmap of the timetable (also reused)
+         */
+        void found(int[] choice, long[] slots);
+        
+        /**
+         * Called when the fraction of the search completed (0 to 1) changes.
+         * @param fraction 
+         */
+        void progress(double fraction);
+    }
+    
+    /**
+     * Creates a solver for the courses of the provided UserCollection.
+     * @param u 
+     */
+    public TimetableSolver(UserCollection u) {
+        this.original = u.getCourses();
+        this.courses = original;
+        this.grid = u.getGrid();
+        this.constraints = new Constraints(grid);
+    }
+    
+    /**
+     * Creates a solver for the courses of the provided UserCollection, which
+     * only returns timetables allowed by the provided filters.
+     * @param u
+     * @param c 
+     */
+    public TimetableSolver(UserCollection u, Constraints c) {
+        this(u);
+        setConstraints(c);
+    }
+    
+    /**
+     * Creates a solver for some courses of a catalog, which only returns
+     * timetables allowed by the provided filters. Course c of the results is
+     * course selection[c] of the catalog. The conflict information is taken
+     * from the catalog, so making many of these solvers is cheap.
+     * @param catalog
+     * @param selection
+     * @param c 
+     */
+    public TimetableSolver(CourseCatalog catalog, int[] selection, Constraints c) {
+        this.original = new ArrayList<>(selection.length);
+        for (int course : selection) {
+            original.add(catalog.getCourses().get(course));
+        }
+        this.courses = original;
+        this.catalog = catalog;
+        this.selection = selection;
+        this.grid = catalog.getGrid();
+        setConstraints(c);
+    }
+    
+    /**
+     * Sets the filters which are applied during the search. Filters made for
+     * another grid are carried over to the grid of the courses.
+     * @param c 
+     */
+    public void setConstraints(Constraints c) {
+        this.constraints = c.withGrid(grid);
+    }
+    
+    /**
+     * Enables or disables reordering the courses before searching (on by
+     * default). With it off, solve() returns the timetables in exactly the
+     * order of the original breadth-first expansion.
+     * @param o 
+     */
+    public void setCourseOrdering(boolean o) {
+        this.ordering = o;
+    }
+    
+    /**
+     * Enables or disables grouping identical options (on by default). With
+     * it on, only the first option of each group is searched, and each row of
+     * the results stands for every combination of the options in its groups
+     * (see TimetableResults.getAlternatives()).
+     * @param g 
+     */
+    public void setOptionGrouping(boolean g) {
+        this.grouping = g;
+    }
+    
+    /**
+     * Sets the most result rows kept on the heap by solve() and
+     * solveOptimal(); beyond that they go to a memory-mapped temporary file
+     * (see TimetableResults.setSpillThreshold()). -1, the default, keeps
+     * everything on the heap. Results which were spilled should be closed
+     * once they are no longer needed.
+     * @param rows 
+     */
+    public void setSpillThreshold(int rows) {
+        this.spillThreshold = rows;
+    }
+    
+    /**
+     * Enables or disables the parallel (ForkJoin) search.
+     * @param p 
+     */
+    public void setParallel(boolean p) {
+        this.parallel = p;
+    }
+    
+    /**
+     * Sets the listener which follows the search (null for none).
+     * @param l 
+     */
+    public void setListener(Listener l) {
+        this.listener = l;
+    }
+    
+    /**
+     * Stops a running search. solve() then returns the timetables it found so
+     * far. Can be called from any thread.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+    
+    /**
+     * Returns true if cancel() was called.
+     * @return 
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * Runs the search and returns every valid timetable. The options of the
+     * first course searched change slowest, those of the last fastest; with
+     * course ordering off that is the order of the original breadth-first
+     * expansion (last course slowest). Rows always use the original course
+     * numbering. If the search was cancelled, only the timetables found until
+     * then are returned.
+     * @return 
+     */
+    public TimetableResults solve() {
+        TimetableResults results;
+        done.reset();
+        State start = start();
+        // Walk from the last course down so results come out in the same order
+        int first = courses.size() - 1;
+        if (parallel) {
+            results = ForkJoinPool.commonPool().invoke(new SearchTask(first, start, 1.0));
+        } else {
+            results = newResults();
+            searchTop(first, start, results, 1.0);
+        }
+        results.setGroups(groups);
+        return results;
+    }
+    
+    /**
+     * Returns the valid timetables one at a time, in the same order as solve().
+     * The search only runs as far as needed to find the next timetable, and
+     * always on the calling thread. Each timetable is returned as a new array
+     * holding the option index of each course; cancel() ends the iteration.
+     * With option grouping on, each row solve() would return is expanded into
+     * every timetable it stands for (the row itself first, then the other
+     * combinations of identical options, course 0 changing fastest), so the
+     * iterator returns as many timetables as count().
+     * @return 
+     */
+    public Iterator<int[]> iterator() {
+        return new ResultIterator(start());
+    }
+    
+    /**
+     * Same as iterator(), as a sequential Stream.
+     * @return 
+     */
+    public Stream<int[]> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+    
+    /**
+     * Returns only the k best valid timetables, ranked by fewest total hours if
+     * byHours is true, fewest days otherwise. Rows come out best first, and
+     * equal scores keep the order of solve(), so the result is the same as
+     * the first k rows of solve() after a stable sort. Memory stays O(k): the
+     * search keeps a bounded heap of the best timetables so far, and a branch
+     * whose lower bound (see canReach()) is no better than the k-th best is
+     * skipped entirely. Runs on the calling thread; found() is not called.
+     * @param k
+     * @param byHours
+     * @return 
+     */
+    public TimetableResults solveBest(int k, boolean byHours) {
+        done.reset();
+        State st = start();
+        BestHeap best = new BestHeap(k, courses.size());
+        int top = courses.size() - 1;
+        if (k <= 0) {
+            addProgress(1.0);
+        } else if (top < 0) {
+            searchBest(top, st, best, byHours);
+            addProgress(1.0);
+        } else {
+            // Progress is counted by the options of the first course searched
+            int options = courses.get(top).getWeekOptions().size();
+            if (options == 0) {
+                addProgress(1.0);
+            }
+            for (int o = 0; o < options && !cancelled; o++) {
+                if (extend(top, index.getId(top, o), st, st)
+                        && canReach(top, st, byHours, best.limit())) {
+                    st.choice[top] = o;
+                    searchBest(top - 1, st, best, byHours);
+                }
+                addProgress(1.0 / options);
+            }
+        }
+        TimetableResults results = best.toResults();
+        results.setGroups(groups);
+        return results;
+    }
+    
+    /**
+     * The search of search(), keeping only the best timetables in 'best' and
+     * skipping branches which can't get into it.
+     * @param i
+     * @param st
+     * @param best
+     * @param byHours 
+     */
+    private void searchBest(int i, State st, BestHeap best, boolean byHours) {
+        if (cancelled) {
+            return;
+        }
+        if (i < 0) {
+            best.offer(score(st.partial[0], byHours), st.originalChoice(order));
+            return;
+        }
+        long[] cand = st.cand[i + 1];
+        int first = index.getFirst(i), end = index.getFirst(i + 1);
+        for (int id = CompatibilityIndex.next(cand, first, end); id != -1;
+                id = CompatibilityIndex.next(cand, id + 1, end)) {
+            if (extend(i, id, st, st) && canReach(i, st, byHours, best.limit())) {
+                st.choice[i] = id - first;
+                searchBest(i - 1, st, best, byHours);
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of valid timetables solve() would stand for (counting
+     * every combination of identical options), without building any of them.
+     * Which options of the remaining courses still fit, and whether they keep
+     * within the filters, only depends on the classes picked so far, not on
+     * which options they came from. Of those classes, only the timeslots some
+     * remaining option uses matter for conflicts, and only the first and last
+     * class of each day matter for the filters. The number of ways to complete
+     * a partial timetable is remembered under that key, so each distinct one
+     * is only counted once. Runs on the calling thread; numbers too large for
+     * a long are returned as Long.MAX_VALUE. Progress is reported by the
+     * options of the first course searched, and cancel() stops the count
+     * (the number returned is then meaningless).
+     * @return 
+     */
+    public long count() {
+        return count(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Same as count(), but stops as soon as it is clear there are at least
+     * 'limit' valid timetables, and then returns 'limit'. This is much faster
+     * when all that matters is whether there are too many.
+     * @param limit
+     * @return 
+     */
+    public long count(long limit) {
+        done.reset();
+        State st = start();
+        int n = courses.size();
+        // reach[i] holds the timeslots used by the candidate options of
+        // courses 0 to i
+        long[][] reach = new long[n][grid.getLength()];
+        long[] initial = st.cand[n];
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                System.arraycopy(reach[i - 1], 0, reach[i], 0, reach[i].length);
+            }
+            int first = index.getFirst(i), end = index.getFirst(i + 1);
+            for (int id = CompatibilityIndex.next(initial, first, end); id != -1;
+                    id = CompatibilityIndex.next(initial, id + 1, end)) {
+                for (int w = 0; w < reach[i].length; w++) {
+                    reach[i][w] |= optionSlots[id][w];
+                }
+            }
+        }
+        ArrayList<HashMap<LongBuffer, Long>> memo = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            memo.add(new HashMap<>());
+        }
+        return countFrom(n - 1, st, reach, memo, new int[1], limit);
+    }
+    
+    /**
+     * Returns the key count() remembers the partial timetable at level i+1
+     * under: its classes in the timeslots courses 0 to i could use, plus the
+     * first and last timeslot of each day if the filters limit hours or days.
+     * @param i
+     * @param st
+     * @param reach
+     * @return 
+     */
+    private LongBuffer countKey(int i, State st, long[][] reach) {
+        long[] partial = st.partial[i + 1];
+        int length = partial.length;
+        boolean limited = constraints.isLimited();
+        // Two days' first and last timeslots (16 bits each) per extra long
+        long[] key = new long[limited ? length + (grid.getDays() + 1) / 2 : length];
+        for (int w = 0; w < length; w++) {
+            key[w] = partial[w] & reach[i][w];
+        }
+        if (limited) {
+            for (int d = 0; d < grid.getDays(); d++) {
+                long ends = (grid.first(partial, d) + 1) | (long)(grid.last(partial, d) + 1) << 16;
+                key[length + d / 2] |= ends << (32 * (d % 2));
+            }
+        }
+        return LongBuffer.wrap(key);
+    }
+    
+    /**
+     * Counts the completions of the partial timetable at level i+1, with
+     * course i as the next one to pick.
+     * @param i
+     * @param st
+     * @param reach see count()
+     * @param memo counts already worked out, for each level
+     * @param remembered number of counts in 'memo'
+     * @param limit
+     * @return the number of completions, or 'limit' if there are at least
+     * that many
+     */
+    private long countFrom(int i, State st, long[][] reach, ArrayList<HashMap<LongBuffer, Long>> memo,
+            int[] remembered, long limit) {
+        if (cancelled) {
+            return 0;
+        }
+        if (i < 0) {
+            return 1;
+        }
+        LongBuffer key = countKey(i, st, reach);
+        Long known = memo.get(i).get(key);
+        if (known != null) {
+            return known;
+        }
+        long total = 0;
+        long[] cand = st.cand[i + 1];
+        int first = index.getFirst(i), end = index.getFirst(i + 1);
+        // Progress is counted by the options of the first course searched
+        boolean top = i == courses.size() - 1;
+        int counted = first;
+        for (int id = CompatibilityIndex.next(cand, first, end); id != -1;
+                id = CompatibilityIndex.next(cand, id + 1, end)) {
+            if (extend(i, id, st, st)) {
+                long ways = countFrom(i - 1, st, reach, memo, remembered, limit);
+                if (groups != null) {
+                    ways = multiply(ways, groups.getMembers(order[i], id - first).length);
+                }
+                // Every completion here is a different valid timetable, so
+                // once one partial timetable has 'limit' of them, so does
+                // the whole search
+                if (ways >= limit - total) {
+                    return limit;
+                }
+                total += ways;
+            }
+            if (top) {
+                addProgress((double)(id + 1 - counted) / (end - first));
+                counted = id + 1;
+            }
+        }
+        if (top) {
+            addProgress((double)(end - counted) / Math.max(end - first, 1));
+        }
+        if (remembered[0] < COUNT_MEMO_LIMIT && !cancelled) {
+            memo.get(i).put(key, total);
+            remembered[0] += 1;
+        }
+        return total;
+    }
+    
+    /**
+     * Multiplies two counts, returning Long.MAX_VALUE if the result is too
+     * large.
+     * @param a
+     * @param b
+     * @return 
+     */
+    private static long multiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) {
+            return Long.MAX_VALUE;
+        }
+        return a * b;
+    }
+    
+    /**
+     * Returns every valid timetable with the lowest possible score (fewest
+     * total hours if byHours is true, fewest days otherwise), in the order of
+     * solve(). The best score is found first with solveBest(1, byHours), then
+     * a second search collects its ties, skipping every branch which can't
+     * reach that score. Runs on the calling thread; found() is not called.
+     * @param byHours
+     * @return 
+     */
+    public TimetableResults solveOptimal(boolean byHours) {
+        TimetableResults one = solveBest(1, byHours);
+        if (one.size() == 0 || cancelled) {
+            return one;
+        }
+        int optimum = byHours ? one.getTotalHours(0) : one.getTotalDays(0);
+        TimetableResults out = newResults();
+        searchWithin(courses.size() - 1, start(), out, byHours, optimum);
+        out.setGroups(groups);
+        return out;
+    }
+    
+    /**
+     * The search of search(), skipping branches which can't score 'limit' or
+     * less.
+     * @param i
+     * @param st
+     * @param out
+     * @param byHours
+     * @param limit 
+     */
+    private void searchWithin(int i, State st, TimetableResults out, boolean byHours, int limit) {
+        if (cancelled) {
+            return;
+        }
+        if (i < 0) {
+            out.add(st.originalChoice(order), st.partial[0]);
+            return;
+        }
+        long[] cand = st.cand[i + 1];
+        int first = index.getFirst(i), end = index.getFirst(i + 1);
+        for (int id = CompatibilityIndex.next(cand, first, end); id != -1;
+                id = CompatibilityIndex.next(cand, id + 1, end)) {
+            if (extend(i, id, st, st) && canReach(i, st, byHours, limit)) {
+                st.choice[i] = id - first;
+                searchWithin(i - 1, st, out, byHours, limit);
+            }
+        }
+    }
+    
+    /**
+     * Returns false if no completion of the partial timetable at level i can
+     * score 'limit' or less. The bound used never overestimates: the partial
+     * score can only grow, and each remaining course adds at least what its
+     * cheapest candidate option would add on its own (extra hours spanned,
+     * or new days). Those additions may overlap, so only the largest of them
+     * is counted.
+     * @param i
+     * @param st
+     * @param byHours
+     * @param limit
+     * @return 
+     */
+    private boolean canReach(int i, State st, boolean byHours, int limit) {
+        long[] partial = st.partial[i];
+        int base = score(partial, byHours);
+        if (base > limit) {
+            return false;
+        }
+        if (limit == Integer.MAX_VALUE) {
+            return true;
+        }
+        long[] cand = st.cand[i];
+        int partialDays = grid.dayMask(partial);
+        int extra = 0;
+        for (int j = 0; j < i; j++) {
+            int first = index.getFirst(j), end = index.getFirst(j + 1);
+            int cheapest = Integer.MAX_VALUE;
+            // Once an option adds no more than 'extra', this course can't
+            // raise the bound
+            for (int id = CompatibilityIndex.next(cand, first, end); id != -1 && cheapest > extra;
+                    id = CompatibilityIndex.next(cand, id + 1, end)) {
+                int added;
+                if (byHours) {
+                    added = 0;
+                    long[] option = optionSlots[id];
+                    int days = optionDays[id];
+                    for (int d = 0; days != 0; d++, days >>>= 1) {
+                        if ((days & 1) != 0) {
+                            added += grid.span(partial, option, d) - grid.span(partial, d);
+                        }
+                    }
+                } else {
+                    added = Integer.bitCount(optionDays[id] & ~partialDays);
+                }
+                cheapest = Math.min(cheapest, added);
+            }
+            if (cheapest != Integer.MAX_VALUE && cheapest > extra) {
+                extra = cheapest;
+                if (base + extra > limit) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the ranking score of a (partial) timetable: its total hours or
+     * its number of days. Lower is better.
+     * @param slots
+     * @param byHours
+     * @return 
+     */
+    private int score(long[] slots, boolean byHours) {
+        return byHours ? grid.totalSlots(slots) : grid.totalDays(slots);
+    }
+    
+    /**
+     * Builds the CompatibilityIndex for the courses (or takes it from the
+     * catalog) and the State the search starts from.
+     * @return 
+     */
+    private State start() {
+        if (!grouping) {
+            groups = null;
+        } else if (catalog != null) {
+            groups = catalog.getGroups().subset(selection);
+        } else {
+            groups = new OptionGroups(original);
+        }
+        orderCourses();
+        if (catalog != null) {
+            int[] searched = new int[courses.size()];
+            for (int p = 0; p < searched.length; p++) {
+                searched[p] = selection[order[p]];
+            }
+            index = catalog.getIndex().subset(searched);
+        } else {
+            index = new CompatibilityIndex(courses);
+        }
+        int total = index.getFirst(courses.size());
+        optionSlots = new long[total][];
+        optionDays = new int[total];
+        for (int c = 0; c < courses.size(); c++) {
+            ArrayList<Week> options = courses.get(c).getWeekOptions();
+            for (int o = 0; o < options.size(); o++) {
+                optionSlots[index.getId(c, o)] = options.get(o).getSlots();
+                optionDays[index.getId(c, o)] = options.get(o).getDayMask();
+            }
+        }
+        State start = new State(courses.size(), grid.getLength(), index.getWords());
+        // The options which pass the filters on their own are the candidates
+        // to start from (only one option of each group of identical ones)
+        long[] initial = start.cand[courses.size()];
+        for (int c = 0; c < courses.size(); c++) {
+            ArrayList<Week> options = courses.get(c).getWeekOptions();
+            for (int o = 0; o < options.size(); o++) {
+                if (isSearched(order[c], o) && constraints.allows(options.get(o).getSlots())) {
+                    int id = index.getId(c, o);
+                    initial[id >>> 6] |= 1L << id;
+                }
+            }
+        }
+        return start;
+    }
+    
+    /**
+     * Creates an empty result list with the spill threshold set.
+     * @return 
+     */
+    private TimetableResults newResults() {
+        TimetableResults r = new TimetableResults(original);
+        r.setSpillThreshold(spillThreshold);
+        return r;
+    }
+    
+    /**
+     * Returns true if option o of (original) course c is searched: it is not
+     * identical to an earlier option of the course, or grouping is off.
+     * @param c
+     * @param o
+     * @return 
+     */
+    private boolean isSearched(int c, int o) {
+        return groups == null || groups.isRepresentative(c, o);
+    }
+    
+    /**
+     * Decides the order the courses are searched in. The course searched first
+     * (the last one of 'courses') is the most constrained: the one with the
+     * fewest (distinct) options passing the filters, and of those, the one whose options
+     * overlap the most with options of other courses. Picking those first
+     * makes conflicts show up near the top of the search tree, where they cut
+     * off the most. The conflict degree is estimated from how many options of
+     * other courses use each timeslot (counted by the bit of the timeslot in
+     * the occupancy bitmaps).
+     */
+    private void orderCourses() {
+        int n = original.size();
+        order = new int[n];
+        for (int c = 0; c < n; c++) {
+            order[c] = c;
+        }
+        if (!ordering || n < 2) {
+            courses = original;
+            return;
+        }
+        int[] allowed = new int[n];
+        long[] degree = new long[n];
+        // Options (passing the filters) of all courses, and of each course,
+        // using each timeslot
+        int bits = grid.getLength() * 64;
+        int[] load = new int[bits];
+        int[][] own = new int[n][bits];
+        for (int c = 0; c < n; c++) {
+            ArrayList<Week> options = original.get(c).getWeekOptions();
+            for (int o = 0; o < options.size(); o++) {
+                long[] slots = options.get(o).getSlots();
+                if (!isSearched(c, o) || !constraints.allows(slots)) {
+                    continue;
+                }
+                allowed[c] += 1;
+                for (int w = 0; w < slots.length; w++) {
+                    for (long b = slots[w]; b != 0; b &= b - 1) {
+                        int bit = w * 64 + Long.numberOfTrailingZeros(b);
+                        load[bit] += 1;
+                        own[c][bit] += 1;
+                    }
+                }
+            }
+        }
+        for (int c = 0; c < n; c++) {
+            for (int bit = 0; bit < bits; bit++) {
+                degree[c] += (long)own[c][bit] * (load[bit] - own[c][bit]);
+            }
+        }
+        // Least constrained first, since the search starts from the end
+        Integer[] sorted = new Integer[n];
+        for (int c = 0; c < n; c++) {
+            sorted[c] = c;
+        }
+        Arrays.sort(sorted, (a, b) -> {
+            if (allowed[a] != allowed[b]) {
+                return Integer.compare(allowed[b], allowed[a]);
+            }
+            if (degree[a] != degree[b]) {
+                return Long.compare(degree[a], degree[b]);
+            }
+            return Integer.compare(a, b);
+        });
+        courses = new ArrayList<>(n);
+        for (int p = 0; p < n; p++) {
+            order[p] = sorted[p];
+            courses.add(original.get(sorted[p]));
+        }
+    }
+    
+    /**
+     * The working memory of one search: for each level, the partial timetable
+     * and the candidate options left, plus the option chosen for each course.
+     * Level i holds courses i and up; level 'courses' is the empty timetable.
+     */
+    private static class State {
+        
+        final long[][] partial;
+        final long[][] cand;
+        final int[] choice;
+        // The choice in the original course numbering (see originalChoice())
+        final int[] out;
+        
+        State(int courses, int length, int words) {
+            partial = new long[courses + 1][length];
+            cand = new long[courses + 1][words];
+            choice = new int[courses];
+            out = new int[courses];
+        }
+        
+        /**
+         * Copies the choice into 'out', in the original course numbering, and
+         * returns it.
+         * @param order the original number of each searched course
+         * @return 
+         */
+        int[] originalChoice(int[] order) {
+            for (int p = 0; p < choice.length; p++) {
+                out[order[p]] = choice[p];
+            }
+            return out;
+        }
+    }
+    
+    /**
+     * Tries every candidate option of course 'i' against the partial timetable
+     * of level i+1 (which holds courses i+1 and up) and recurses into the next
+     * course.
+     * @param i
+     * @param st
+     * @param out receives the complete timetables
+     */
+    private void search(int i, State st, TimetableResults out) {
+        if (cancelled) {
+            return;
+        }
+        if (i < 0) {
+            out.add(st.originalChoice(order), st.partial[0]);
+            if (listener != null) {
+                listener.found(st.out, st.partial[0]);
+            }
+            return;
+        }
+        // Only visit the options still compatible with everything picked
+        long[] cand = st.cand[i + 1];
+        int first = index.getFirst(i), end = index.getFirst(i + 1);
+        for (int id = CompatibilityIndex.next(cand, first, end); id != -1;
+                id = CompatibilityIndex.next(cand, id + 1, end)) {
+            if (extend(i, id, st, st)) {
+                st.choice[i] = id - first;
+                search(i - 1, st, out);
+            }
+        }
+    }
+    
+    /**
+     * The sequential search for the top PARALLEL_DEPTH levels, which also keeps
+     * track of progress. 'share' is the fraction of the whole search tree
+     * covered by this call; it is split evenly between the options.
+     * @param i
+     * @param st
+     * @param out
+     * @param share 
+     */
+    private void searchTop(int i, State st, TimetableResults out, double share) {
+        if (!isTopLevel(i)) {
+            search(i, st, out);
+            addProgress(share);
+            return;
+        }
+        int options = courses.get(i).getWeekOptions().size();
+        if (options == 0) {
+            addProgress(share);
+        }
+        for (int o = 0; o < options && !cancelled; o++) {
+            if (extend(i, index.getId(i, o), st, st)) {
+                st.choice[i] = o;
+                searchTop(i - 1, st, out, share / options);
+            } else {
+                addProgress(share / options);
+            }
+        }
+    }
+    
+    /**
+     * Returns true if course 'i' is one of the top PARALLEL_DEPTH levels of
+     * the search (which are split into tasks and used to measure progress).
+     * @param i
+     * @return 
+     */
+    private boolean isTopLevel(int i) {
+        return i >= 0 && courses.size() - 1 - i < PARALLEL_DEPTH;
+    }
+    
+    /**
+     * Records that another part of the search tree has been fully explored.
+     * @param share 
+     */
+    private void addProgress(double share) {
+        done.add(share);
+        if (listener != null) {
+            listener.progress(Math.min(1.0, done.sum()));
+        }
+    }
+    
+    /**
+     * Picks option 'id' for course 'i': reads level i+1 of 'from' and writes
+     * level i of 'to' (the same State, except when forking a task). Returns
+     * false if the option is not a candidate, puts the timetable over a limit,
+     * or leaves one of the remaining courses without a compatible option.
+     * @param i
+     * @param id
+     * @param from
+     * @param to
+     * @return 
+     */
+    private boolean extend(int i, int id, State from, State to) {
+        long[] cand = from.cand[i + 1];
+        if ((cand[id >>> 6] & (1L << id)) == 0) {
+            return false;
+        }
+        long[] slots = from.partial[i + 1];
+        long[] option = optionSlots[id];
+        long[] merged = to.partial[i];
+        for (int w = 0; w < merged.length; w++) {
+            merged[w] = option[w] | slots[w];
+        }
+        // Adding courses never shortens a day or frees one up, so if this
+        // partial timetable is over a limit, every completion is too
+        if (!constraints.withinLimits(merged)) {
+            return false;
+        }
+        long[] compatible = index.getCompatible(id);
+        long[] left = to.cand[i];
+        for (int w = 0; w < left.length; w++) {
+            left[w] = cand[w] & compatible[w];
+        }
+        // Forward check: every course still to pick needs an option left
+        for (int j = 0; j < i; j++) {
+            if (!index.hasOption(left, j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * The k best timetables found so far, as a max-heap with the worst one
+     * (highest score, then found last) on top. Timetables are offered in the
+     * order of solve(), so a new one only gets in with a strictly lower score
+     * than the top.
+     */
+    private class BestHeap {
+        
+        private final int k;
+        // Entry data, by slot: score, order found and chosen options
+        private final int[] scores;
+        private final long[] order;
+        private final int[][] choices;
+        // Slots arranged as a heap
+        private final int[] heap;
+        private int count = 0;
+        private long found = 0;
+        
+        BestHeap(int k, int courses) {
+            this.k = Math.max(0, k);
+            scores = new int[this.k];
+            order = new long[this.k];
+            choices = new int[this.k][courses];
+            heap = new int[this.k];
+        }
+        
+        /**
+         * Returns the highest score which would still get into the heap.
+         * @return 
+         */
+        int limit() {
+            return count < k ? Integer.MAX_VALUE : scores[heap[0]] - 1;
+        }
+        
+        /**
+         * Adds a complete timetable if it is among the k best so far.
+         * @param score
+         * @param choice 
+         */
+        void offer(int score, int[] choice) {
+            long n = found++;
+            if (count < k) {
+                // Not full yet: add at the bottom
+                int slot = count;
+                set(slot, score, n, choice);
+                heap[count] = slot;
+                count += 1;
+                siftUp(count - 1);
+            } else if (score < scores[heap[0]]) {
+                // Replaces the worst one
+                set(heap[0], score, n, choice);
+                siftDown(0);
+            }
+        }
+        
+        private void set(int slot, int score, long n, int[] choice) {
+            scores[slot] = score;
+            order[slot] = n;
+            System.arraycopy(choice, 0, choices[slot], 0, choice.length);
+        }
+        
+        /**
+         * Empties the heap into a TimetableResults, best first.
+         * @return 
+         */
+        TimetableResults toResults() {
+            int[] sorted = new int[count];
+            for (int j = count - 1; j >= 0; j--) {
+                sorted[j] = heap[0];
+                count -= 1;
+                heap[0] = heap[count];
+                siftDown(0);
+            }
+            TimetableResults out = new TimetableResults(original);
+            for (int slot : sorted) {
+                out.add(choices[slot]);
+            }
+            return out;
+        }
+        
+        private boolean worse(int a, int b) {
+            return scores[a] > scores[b] || (scores[a] == scores[b] && order[a] > order[b]);
+        }
+        
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(heap[i], heap[parent])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+        
+        private void siftDown(int i) {
+            while (true) {
+                int l = 2 * i + 1, r = l + 1, top = i;
+                if (l < count && worse(heap[l], heap[top])) {
+                    top = l;
+                }
+                if (r < count && worse(heap[r], heap[top])) {
+                    top = r;
+                }
+                if (top == i) {
+                    return;
+                }
+                swap(i, top);
+                i = top;
+            }
+        }
+        
+        private void swap(int a, int b) {
+            int t = heap[a];
+            heap[a] = heap[b];
+            heap[b] = t;
+        }
+    }
+    
+    /**
+     * The search of search(), unrolled into a loop so it can stop after every
+     * timetable found. cursor[i] is the next option id to try for course i,
+     * and 'level' is the course currently being picked. A row found with
+     * option groups is expanded into its variants before searching on.
+     */
+    private class ResultIterator implements Iterator<int[]> {
+        
+        private final State st;
+        private final int[] cursor;
+        private int level;
+        // The next timetable to return (null if not searched for yet)
+        private int[] ready;
+        // The options of each course the last row found stands for, and
+        // which of them the last variant returned used (null if that row has
+        // no variants left)
+        private int[][] alternatives;
+        private int[] variant;
+        
+        ResultIterator(State st) {
+            this.st = st;
+            this.cursor = new int[courses.size()];
+            this.level = courses.size() - 1;
+            if (level >= 0) {
+                cursor[level] = index.getFirst(level);
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (ready == null) {
+                ready = advance();
+            }
+            return ready != null;
+        }
+        
+        @Override
+        public int[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int[] r = ready;
+            ready = null;
+            return r;
+        }
+        
+        /**
+         * Returns the next variant of the last row found, or runs the search
+         * up to the next complete timetable and returns it. Returns null once
+         * the search is over (or cancelled).
+         * @return 
+         */
+        private int[] advance() {
+            if (variant != null && !cancelled) {
+                int[] next = nextVariant();
+                if (next != null) {
+                    return next;
+                }
+            }
+            while (level < courses.size() && !cancelled) {
+                if (level < 0) {
+                    // Complete; carry on with the next option of course 0
+                    level = 0;
+                    int[] row = st.originalChoice(order).clone();
+                    if (groups != null) {
+                        alternatives = new int[row.length][];
+                        for (int c = 0; c < row.length; c++) {
+                            alternatives[c] = groups.getMembers(c, row[c]);
+                        }
+                        variant = new int[row.length];
+                    }
+                    return row;
+                }
+                int first = index.getFirst(level), end = index.getFirst(level + 1);
+                int id = CompatibilityIndex.next(st.cand[level + 1], cursor[level], end);
+                if (id == -1) {
+                    // No options left here, go back up to the previous course
+                    level++;
+                    continue;
+                }
+                cursor[level] = id + 1;
+                if (extend(level, id, st, st)) {
+                    st.choice[level] = id - first;
+                    level--;
+                    if (level >= 0) {
+                        cursor[level] = index.getFirst(level);
+                    }
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Moves on to the next combination of the alternatives and returns
+         * it, or returns null (and forgets the row) once they are used up.
+         * @return 
+         */
+        private int[] nextVariant() {
+            int c = 0;
+            while (c < variant.length && ++variant[c] == alternatives[c].length) {
+                variant[c++] = 0;
+            }
+            if (c == variant.length) {
+                variant = null;
+                return null;
+            }
+            int[] next = new int[variant.length];
+            for (int k = 0; k < next.length; k++) {
+                next[k] = alternatives[k][variant[k]];
+            }
+            return next;
+        }
+    }
+    
+    /**
+     * One subtree of the parallel search. Near the top of the tree it forks a
+     * task per option; further down it runs the sequential search. 'share'
+     * works as in searchTop().
+     */
+    private class SearchTask extends RecursiveTask<TimetableResults> {
+        
+        // ForkJoinTask is Serializable, but the tasks are never serialized
+        private static final long serialVersionUID = 1L;
+        
+        private final int i;
+        private final State st;
+        private final double share;
+        
+        SearchTask(int i, State st, double share) {
+            this.i = i;
+            this.st = st;
+            this.share = share;
+        }
+        
+        @Override
+        protected TimetableResults compute() {
+            TimetableResults out = newResults();
+            if (!isTopLevel(i)) {
+                search(i, st, out);
+                addProgress(share);
+                return out;
+            }
+            int options = courses.get(i).getWeekOptions().size();
+            ArrayList<SearchTask> subtasks = new ArrayList<>();
+            if (options == 0) {
+                addProgress(share);
+            }
+            for (int o = 0; o < options; o++) {
+                // Each subtask gets its own copy of the search state
+                State child = new State(courses.size(), grid.getLength(), index.getWords());
+                if (extend(i, index.getId(i, o), st, child)) {
+                    System.arraycopy(st.choice, 0, child.choice, 0, st.choice.length);
+                    child.choice[i] = o;
+                    SearchTask t = new SearchTask(i - 1, child, share / options);
+                    t.fork();
+                    subtasks.add(t);
+                } else {
+                    addProgress(share / options);
+                }
+            }
+            // Join in option order so the results match the sequential order
+            for (SearchTask t : subtasks) {
+                TimetableResults r = t.join();
+                out.addAll(r);
+                r.close();
+            }
+            return out;
+        }
+    }
+}
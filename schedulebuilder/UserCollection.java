@@ -13,12 +13,41 @@ import java.util.ArrayList;
  */
 public class UserCollection implements Serializable{
     
+    // Pinned so that later changes to this class keep old .sch files readable
+    private static final long serialVersionUID = 4695315931283980028L;
+    
     // These two variables are used when generating dummy data
     private final int GEN_DAYSPERWEEK = 1;
     private final int GEN_HOURSPERCLASS = 3;
     
     // Array list holds all the user's courses
     private ArrayList<Course> courses = new ArrayList<>();
+    // The grid every week is laid out on. Not serialized (a deserialized
+    // collection takes the grid of its weeks); ScheduleFile saves it.
+    private transient TimeGrid grid;
+    
+    /**
+     * Returns the grid the weeks of this collection are laid out on.
+     * @return 
+     */
+    public TimeGrid getGrid() {
+        return grid == null ? TimeGrid.of(courses) : grid;
+    }
+    
+    /**
+     * Changes the grid of this collection. Every week already in it is moved
+     * to the new grid (see Week.toGrid()).
+     * @param g 
+     */
+    public void setGrid(TimeGrid g) {
+        for (Course c : courses) {
+            ArrayList<Week> options = c.getWeekOptions();
+            for (int i = 0; i < options.size(); i++) {
+                options.set(i, options.get(i).toGrid(g));
+            }
+        }
+        this.grid = g;
+    }
     
     /**
      * Returns all courses.
@@ -36,6 +65,44 @@ public class UserCollection implements Serializable{
         this.courses.add(c);
     }
     
+    /**
+     * Returns true if any week option of any course has no class times.
+     * @return 
+     */
+    public boolean hasEmptyWeek() {
+        for (Course c : courses) {
+            for (Week w : c.getWeekOptions()) {
+                if (w.getDayMask() == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns a deep copy of this collection, so that it can be worked on
+     * independently of the original. The week options are renamed "Week 1",
+     * "Week 2", etc. numbered across all of the courses.
+     * @return 
+     */
+    public UserCollection getCopy() {
+        UserCollection u = new UserCollection();
+        u.grid = this.grid;
+        int weekNumber = 0;
+        for (Course old : courses) {
+            Course c = new Course();
+            c.setName(old.getName());
+            for (Week w : old.getWeekOptions()) {
+                Week wcopy = w.getCopy();
+                wcopy.setName("Week " + ++weekNumber);
+                c.addOption(wcopy);
+            }
+            u.addCourse(c);
+        }
+        return u;
+    }
+    
     /**
      * Creates a new course, and since we can assume the next thing the user
      * wants to do is add a weekly option to that course, go ahead and do that
@@ -43,7 +110,7 @@ public class UserCollection implements Serializable{
      */
     public void newCourse() {
         Course c = new Course();
-        Week w = new Week();
+        Week w = new Week(getGrid());
         c.setName("Course " + (courses.size()+1));
         c.addOption(w);
         w.setName("Week 1");
@@ -55,7 +122,7 @@ public class UserCollection implements Serializable{
      * @param c 
      */
     public void newWeek(Course c) {
-        Week w = new Week();
+        Week w = new Week(getGrid());
         w.setName("Week " + (c.getWeekOptions().size() + 1));
         for (Week old : c.getWeekOptions()) {
             if (old.getName() == w.getName()) {
@@ -67,23 +134,27 @@ public class UserCollection implements Serializable{
     
     /**
      * Generates a new course with 3 weekly options and adds it to the ArrayList
-     * of Courses.
+     * of Courses. Classes are GEN_HOURSPERCLASS hours long, rounded up to whole
+     * timeslots of the grid.
      */
     public void generate() {
         Course c = new Course();
+        TimeGrid g = getGrid();
+        int length = Math.min(g.getSlotsPerDay(),
+                (GEN_HOURSPERCLASS * 60 + g.getMinutesPerSlot() - 1) / g.getMinutesPerSlot());
         int lastDay = 99;
         int ndays = GEN_DAYSPERWEEK+(int)(Math.random()*2);
         c.setName("Course " + (courses.size()+1));
         for (int i = 0; i < 3; i++) {
-            Week w = new Week();
+            Week w = new Week(g);
             for (int j = 0; j < ndays; j++) {
-                int day = (int)(Math.random()*5);
-                while (day == lastDay) {
-                    day = (int)(Math.random()*5);
+                int day = (int)(Math.random()*g.getDays());
+                while (day == lastDay && g.getDays() > 1) {
+                    day = (int)(Math.random()*g.getDays());
                 }
                 lastDay = day;
-                int startTime = (int)(Math.random()*(13-GEN_HOURSPERCLASS));
-                for (int k = startTime; k < startTime + GEN_HOURSPERCLASS; k++) {
+                int startTime = (int)(Math.random()*(g.getSlotsPerDay()-length));
+                for (int k = startTime; k < startTime + length; k++) {
                     w.setOne(day, k, 1);
                 }
             }
@@ -1,12 +1,23 @@
 package schedulebuilder;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
- * The Week object which holds a 2-Dimensional array of class times. Since the
- * data is stored as Integers, it can be used to store both: 1) an individual
- * course's class times (1's and 0's), and 2) an entire timetable for the week
- * with more than one course.
+ * The Week object which holds the class times of one week, laid out on a
+ * TimeGrid (Monday to Friday in hourly slots, unless another grid is given).
+ * Each timeslot holds an Integer, so it can be used to store both: 1) an
+ * individual course's class times (1's and 0's), and 2) an entire timetable
+ * for the week with more than one course.
+ * 
+ * The class times are kept as an occupancy bitmap (see TimeGrid), plus the
+ * label of each timeslot for the weeks which hold labels other than 1. For
+ * Java serialization the week is still written as its name and a 2-dimensional
+ * array of Integers, as older versions stored it.
  * 
  * @author Sean Berwick
  * @author Steve Markham
@@ -14,22 +25,62 @@ import java.io.Serializable;
  */
 public class Week implements DataNode, Serializable{
     
+    // Pinned to the value Java computed for the original class, so that .sch
+    // files saved before the occupancy bitmap was added can still be loaded
+    private static final long serialVersionUID = 2965160702460401347L;
+    // The serialized form of older versions: the name and an Integer[days][hours]
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("weekName", String.class),
+        new ObjectStreamField("weekData", Integer[][].class),
+        new ObjectStreamField("weekGrid", String.class)
+    };
+    
+    // Capacity of a section without a seat limit
+    public static final int UNLIMITED = -1;
+    
     private String weekName = "Week";
-    // Holds week data
-    private Integer[][] weekData = new Integer[5][13];
+    // The layout of the timeslots
+    private transient TimeGrid grid;
+    // Occupancy bitmap (laid out as described in TimeGrid): the bit of a
+    // timeslot is set when it holds a class. Kept in sync by setOne()/setAll().
+    private transient long[] slots;
+    // The label of every timeslot (day * slotsPerDay + slot), only kept once
+    // a label other than 1 is set; null means every occupied timeslot is 1
+    private transient int[] labels;
+    // Cached metrics, worked out from the bitmap the first time one of them is
+    // asked for (null until then). setOne()/setAll() clear the cache, merge()
+    // updates it. The weeks of a CourseCatalog are read by many solvers at
+    // once, so the metrics are published together, through a volatile field.
+    private transient volatile Metrics metrics;
+    // Seats in this section (UNLIMITED for no limit). Not part of the
+    // serialized form, to keep the layout of old files; ScheduleFile saves it.
+    private transient int capacity = UNLIMITED;
     
     /**
-     * Constructor initializes the array to all zeros
+     * Creates an empty week on the default grid.
      */
     public Week() {
-        for (int i = 0; i < 5; i++) {
-            for (int j = 0; j < 13; j++) {
-                weekData[i][j] = 0;
-            }
-        }
+        this(TimeGrid.DEFAULT);
     }
     // is this default behavior when we make an instance? Does it happen automatically?
     
+    /**
+     * Creates an empty week on the provided grid.
+     * @param g 
+     */
+    public Week(TimeGrid g) {
+        this.grid = g;
+        this.slots = new long[g.getLength()];
+    }
+    
+    /**
+     * Returns the grid this week is laid out on.
+     * @return 
+     */
+    public TimeGrid getGrid() {
+        return grid;
+    }
+    
     /**
      * Returns this week's name.
      * @return 
@@ -38,7 +89,7 @@ public class Week implements DataNode, Serializable{
     public String toString() {
         return this.weekName;
     }
-
+    
     /**
      * Same as toString();
      * @return 
@@ -56,39 +107,68 @@ public class Week implements DataNode, Serializable{
     }
     
     /**
-     * Set one element of the array of Integers to the provided value.
+     * Sets one timeslot to the provided value (0 = free, otherwise a label).
      * @param day
-     * @param hour
+     * @param hour the timeslot of the day (the hour on the default grid)
      * @param newValue 
      */
     public void setOne(int day, int hour, Integer newValue) {
-        weekData[day][hour] = newValue;
+        metrics = null;
+        grid.set(slots, day, hour, newValue != 0);
+        if (labels == null && newValue != 0 && newValue != 1) {
+            labels = labelArray();
+        }
+        if (labels != null) {
+            labels[day * grid.getSlotsPerDay() + hour] = newValue;
+        }
     }
     
     /**
-     * Returns one Integer from the array.
+     * Returns the value of one timeslot.
      * @param day
      * @param hour
      * @return 
      */
     public Integer getOne(int day, int hour) {
-        return weekData[day][hour];
+        if (!grid.isSet(slots, day, hour)) {
+            return 0;
+        }
+        return labels == null ? 1 : labels[day * grid.getSlotsPerDay() + hour];
     }
     
     /**
-     * Replace this week's weekData array with a provided one.
-     * @param newdata 
+     * Replace the class times of this week with the provided ones, one row
+     * per day.
+     * @param newdata
+     * @throws IllegalArgumentException if the array does not match the grid 
      */
     public void setAll(Integer[][] newdata) {
-        this.weekData = newdata;
+        if (newdata.length != grid.getDays() || newdata[0].length != grid.getSlotsPerDay()) {
+            throw new IllegalArgumentException("Expected a " + grid.getDays() + "x"
+                    + grid.getSlotsPerDay() + " array");
+        }
+        slots = new long[grid.getLength()];
+        labels = null;
+        for (int d = 0; d < newdata.length; d++) {
+            for (int h = 0; h < newdata[d].length; h++) {
+                setOne(d, h, newdata[d][h]);
+            }
+        }
     }
     
     /**
-     * Returns the entire array of Integers.
+     * Returns the class times as an array of Integers, one row per day. The
+     * array is built on each call, so changing it does not change the week.
      * @return 
      */
     public Integer[][] getAll() {
-        return weekData;
+        Integer[][] data = new Integer[grid.getDays()][grid.getSlotsPerDay()];
+        for (int d = 0; d < data.length; d++) {
+            for (int h = 0; h < data[d].length; h++) {
+                data[d][h] = getOne(d, h);
+            }
+        }
+        return data;
     }
     
     /**
@@ -97,78 +177,263 @@ public class Week implements DataNode, Serializable{
      * @return 
      */
     public Week getCopy() {
-        Week w = new Week();
-        for (int d = 0; d < 5; d++) {
-            for (int h = 0; h < 13; h++) {
-                w.setOne(d, h, weekData[d][h]);
-                w.setName("+Copy of " + this.getName());
+        Week w = new Week(grid);
+        w.slots = this.slots.clone();
+        w.labels = this.labels == null ? null : this.labels.clone();
+        w.metrics = this.metrics;
+        w.capacity = this.capacity;
+        w.setName("+Copy of " + this.getName());
+        return w;
+    }
+    
+    /**
+     * Returns a copy of this week laid out on another grid. A timeslot of the
+     * new grid holds a class if any class of this week overlaps it (so going
+     * to a coarser grid rounds classes out to whole timeslots), and classes
+     * on days or at times the new grid does not have are dropped.
+     * @param g
+     * @return 
+     */
+    public Week toGrid(TimeGrid g) {
+        Week w = new Week(g);
+        int days = Math.min(grid.getDays(), g.getDays());
+        for (int d = 0; d < days; d++) {
+            for (int h = 0; h < grid.getSlotsPerDay(); h++) {
+                int label = getOne(d, h);
+                if (label == 0) {
+                    continue;
+                }
+                // The timeslots of the new grid overlapping [start, end)
+                int start = grid.getStartMinute() + h * grid.getMinutesPerSlot() - g.getStartMinute();
+                int end = start + grid.getMinutesPerSlot();
+                int from = Math.max(0, Math.floorDiv(start, g.getMinutesPerSlot()));
+                int to = Math.min(g.getSlotsPerDay(), Math.floorDiv(end + g.getMinutesPerSlot() - 1, g.getMinutesPerSlot()));
+                for (int k = from; k < to; k++) {
+                    w.setOne(d, k, label);
+                }
             }
         }
+        w.weekName = this.weekName;
+        w.capacity = this.capacity;
         return w;
     }
     
     /**
-     * Returns the longest day of this week (hours), including space between
-     * classes.
+     * Returns the occupancy bitmap of this week (see TimeGrid; on the default
+     * grid this is one long per day, with bit h set when hour h holds a
+     * class). This is the week's own array, so it must not be modified.
      * @return 
      */
-    public int getLongestDay() {
-        int longest = 0;
-        // for each day of the week
-        for (int d = 0; d < 5; d++) {
-            int subtotal = 0;
-            int sectionStart = 0;
-            // find first hour that != 0
-            for (int h = 0; h < 13; h++) {
-                if (weekData[d][h] != 0) {
-                    sectionStart = h;
-                    break;
-                }
+    public long[] getSlots() {
+        return slots;
+    }
+    
+    /**
+     * Returns the class times as intervals: {day, start, end} triples of
+     * timeslots (the end not included), ordered by day and start. Built from
+     * the bitmap on each call (see TimeGrid.intervals()).
+     * @return 
+     */
+    public int[] getIntervals() {
+        return grid.intervals(slots);
+    }
+    
+    /**
+     * Marks the timeslots start .. end-1 of one day as a class (label 1).
+     * @param day
+     * @param start
+     * @param end
+     * @throws IllegalArgumentException if the interval is not on the grid 
+     */
+    public void addClass(int day, int start, int end) {
+        if (day < 0 || day >= grid.getDays() || start < 0 || start > end || end > grid.getSlotsPerDay()) {
+            throw new IllegalArgumentException("No timeslots " + start + "-" + end + " on day " + day);
+        }
+        metrics = null;
+        grid.setRange(slots, day, start, end);
+        if (labels != null) {
+            Arrays.fill(labels, day * grid.getSlotsPerDay() + start, day * grid.getSlotsPerDay() + end, 1);
+        }
+    }
+    
+    /**
+     * Returns the number of seats in this section, or UNLIMITED.
+     * @return 
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Sets the number of seats in this section (UNLIMITED for no limit).
+     * @param seats 
+     */
+    public void setCapacity(int seats) {
+        this.capacity = seats;
+    }
+    
+    /**
+     * Returns true if this week and the provided week have a class in the same
+     * timeslot. This is one AND per long of the two occupancy bitmaps.
+     * @param other
+     * @return 
+     */
+    public boolean conflictsWith(Week other) {
+        return conflicts(slots, other.slots);
+    }
+    
+    /**
+     * Builds a new week holding the classes of this week plus those of the
+     * provided option, which are labelled with 'label' (the course number).
+     * The caller is expected to have checked conflictsWith() first.
+     * @param option
+     * @param label
+     * @return 
+     */
+    public Week merge(Week option, int label) {
+        Week w = new Week(grid);
+        w.labels = labelArray();
+        // Only visit the slots the option actually occupies
+        int words = grid.getWordsPerDay();
+        for (int i = 0; i < slots.length; i++) {
+            long add = option.slots[i];
+            int base = (i / words) * grid.getSlotsPerDay() + (i % words) * 64;
+            while (add != 0) {
+                w.labels[base + Long.numberOfTrailingZeros(add)] = label;
+                add &= add - 1;
             }
-            // loop in reverse to find the last hour that != 0
-            for (int h = 12; h >= 0; h--) {
-                if (weekData[d][h] != 0) {
-                    // add the difference to the total
-                    subtotal += h-sectionStart+1;
-                    break;
+            w.slots[i] = this.slots[i] | option.slots[i];
+        }
+        // If this week's metrics are known, only the days the option adds
+        // classes to need to be looked at again
+        Metrics m = metrics;
+        if (m != null) {
+            int longest = m.longestDay, total = m.totalHours, mask = m.dayMask;
+            for (int d = 0; d < grid.getDays(); d++) {
+                if (grid.hasClasses(option.slots, d)) {
+                    int newSpan = grid.span(w.slots, d);
+                    total += newSpan - grid.span(slots, d);
+                    longest = Math.max(longest, newSpan);
+                    mask |= 1 << d;
                 }
             }
-            // if new longest day is longer than old longest day, set it to the
-            // new value
-            if (subtotal > longest) {
-                longest = subtotal;
+            w.metrics = new Metrics(longest, total, mask);
+        }
+        return w;
+    }
+    
+    /**
+     * Returns true if two occupancy bitmaps (of the same grid) share an
+     * occupied timeslot.
+     * @param a
+     * @param b
+     * @return 
+     */
+    public static boolean conflicts(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if ((a[i] & b[i]) != 0) {
+                return true;
             }
         }
-        return longest;
+        return false;
     }
     
     /**
-     * Returns the total number of hours for this week, including time between
-     * classes.
+     * Returns a new array of the labels of every timeslot.
      * @return 
      */
-    public int getTotalHours() {
-        int totalHours = 0;
-        // For each day of the week
-        for (int d = 0; d < 5; d++) {
-            int sectionStart = 0;
-            // Find first hour that != 0
-            for (int h = 0; h < 13; h++) {
-                if (weekData[d][h] != 0) {
-                    sectionStart = h;
-                    break;
+    private int[] labelArray() {
+        if (labels != null) {
+            return labels.clone();
+        }
+        int[] l = new int[grid.getDays() * grid.getSlotsPerDay()];
+        for (int d = 0; d < grid.getDays(); d++) {
+            for (int h = 0; h < grid.getSlotsPerDay(); h++) {
+                if (grid.isSet(slots, d, h)) {
+                    l[d * grid.getSlotsPerDay() + h] = 1;
                 }
             }
-            // Iterate in reverse to find the last hour that != 0
-            for (int h = 12; h >= 0; h--) {
-                if (weekData[d][h] != 0) {
-                    // Add the difference to the total
-                    totalHours += h-sectionStart+1;
-                    break;
-                }
+        }
+        return l;
+    }
+    
+    /**
+     * Reads the serialized form (name, Integer array and grid) and rebuilds
+     * the bitmap from it. Weeks written by older versions have no grid: a 5x13
+     * array is on the default grid, other sizes are read as hourly slots from
+     * 7:00. Serialized files never held a capacity, so their sections are
+     * unlimited.
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException 
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        weekName = (String)fields.get("weekName", "Week");
+        Integer[][] data = (Integer[][])fields.get("weekData", null);
+        if (data == null || data.length == 0) {
+            throw new IOException("Week without class times");
+        }
+        String gridName = (String)fields.get("weekGrid", null);
+        TimeGrid g = TimeGrid.DEFAULT;
+        try {
+            if (gridName != null) {
+                g = TimeGrid.parse(gridName);
+            } else if (data.length != g.getDays() || data[0].length != g.getSlotsPerDay()) {
+                g = new TimeGrid(data.length, data[0].length, 60, 7 * 60);
             }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        grid = g;
+        capacity = UNLIMITED;
+        setAll(data);
+    }
+    
+    /**
+     * Writes the week in the serialized form of older versions, plus the grid
+     * when it is not the default one (older versions skip that field).
+     * @param out
+     * @throws IOException 
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("weekName", weekName);
+        fields.put("weekData", getAll());
+        fields.put("weekGrid", grid.equals(TimeGrid.DEFAULT) ? null : grid.toString());
+        out.writeFields();
+    }
+    
+    /**
+     * Returns the cached metrics, working them out from the bitmap if they
+     * are not known. Two threads may both work them out, with the same result.
+     * @return 
+     */
+    private Metrics metrics() {
+        Metrics m = metrics;
+        if (m == null) {
+            m = new Metrics(grid.longestDay(slots), grid.totalSlots(slots), grid.dayMask(slots));
+            metrics = m;
         }
-        return totalHours;
+        return m;
+    }
+    
+    /**
+     * Returns the longest day of this week, including space between classes,
+     * in timeslots (hours on the default grid).
+     * @return 
+     */
+    public int getLongestDay() {
+        return metrics().longestDay;
+    }
+    
+    /**
+     * Returns the total length of the days of this week, including time
+     * between classes, in timeslots (hours on the default grid).
+     * @return 
+     */
+    public int getTotalHours() {
+        return metrics().totalHours;
     }
     
     /**
@@ -177,15 +442,28 @@ public class Week implements DataNode, Serializable{
      * @return 
      */
     public int getTotalDays() {
-        int totalDays = 0;
-        for (int d = 0; d < 5; d++) {
-            for (int h = 0; h < 13; h++) {
-                if (weekData[d][h] != 0) {
-                    totalDays += 1;
-                    break;
-                }
-            }
+        return Integer.bitCount(metrics().dayMask);
+    }
+    
+    /**
+     * Returns a mask of the occupied days of this week (bit 0 = Monday).
+     * @return 
+     */
+    public int getDayMask() {
+        return metrics().dayMask;
+    }
+    
+    /**
+     * The metrics of a week, worked out together and never changed.
+     */
+    private static final class Metrics {
+        
+        final int longestDay, totalHours, dayMask;
+        
+        Metrics(int longestDay, int totalHours, int dayMask) {
+            this.longestDay = longestDay;
+            this.totalHours = totalHours;
+            this.dayMask = dayMask;
         }
-        return totalDays;
     }
 }
\ No newline at end of file
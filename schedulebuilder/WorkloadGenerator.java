@@ -0,0 +1,354 @@
+package schedulebuilder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Generates synthetic UserCollections for stress testing, from a seed and a
+ * handful of settings: the number of courses, options per course, meetings
+ * (days with a class) per week, the length of a class, and how often two
+ * options of different courses should conflict. The same settings always
+ * generate the same collection. The collection is laid out on the default
+ * grid unless another TimeGrid is set; class lengths are given in hours
+ * either way.
+ *
+ * The conflict density is the fraction of pairs of options (from different
+ * courses) which share a timeslot. It is reached by placing some options in a
+ * common "busy" block (the first days of the week, mid-day) instead of at
+ * random: the generator searches for the share of busy options which comes
+ * closest to the target. Very low or very high targets may be out of reach
+ * for the other settings; getDensity() tells what was actually generated.
+ *
+ * Usage: java schedulebuilder.WorkloadGenerator [options] out.sch
+ *
+ *   --seed N  --courses N  --options N  --meetings MIN-MAX
+ *   --duration MIN-MAX (hours)  --density D (0 to 1, default: random)
+ *   --capacity MIN-MAX (seats per option, default: unlimited)
+ *   --grid DAYS,MINUTES,START-END (eg. 7,15,8:00-22:00, default: 5,60,7:00-20:00)
+ *
+ * @author Sean Berwick
+ * @author Steve Markham
+ * @author Alvin Alora
+ */
+public class WorkloadGenerator {
+    
+    // Pairs of options looked at when measuring the conflict density
+    private static final int DENSITY_SAMPLES = 20000;
+    // Steps of the search for the share of busy options
+    private static final int DENSITY_STEPS = 12;
+    
+    private long seed = 0;
+    private TimeGrid grid = TimeGrid.DEFAULT;
+    private int courses = 10;
+    private int options = 3;
+    private int minMeetings = 1, maxMeetings = 2;
+    private int minDuration = 3, maxDuration = 3;
+    // Range of the seats per option (-1 for unlimited)
+    private int minCapacity = -1, maxCapacity = -1;
+    // Target conflict density, or -1 to place every option at random
+    private double targetDensity = -1;
+    // Density of the last generated collection
+    private double density;
+    
+    /**
+     * Sets the seed of the random generator.
+     * @param s 
+     */
+    public void setSeed(long s) {
+        this.seed = s;
+    }
+    
+    /**
+     * Sets the grid the collection is laid out on.
+     * @param g 
+     */
+    public void setGrid(TimeGrid g) {
+        this.grid = g;
+    }
+    
+    /**
+     * Sets the number of courses to generate.
+     * @param n 
+     */
+    public void setCourses(int n) {
+        this.courses = n;
+    }
+    
+    /**
+     * Sets the number of week options per course.
+     * @param n 
+     */
+    public void setOptions(int n) {
+        this.options = n;
+    }
+    
+    /**
+     * Sets the range of the number of days with a class, per option (picked
+     * uniformly, both ends included). No more than the days of the grid are
+     * used.
+     * @param min
+     * @param max 
+     */
+    public void setMeetings(int min, int max) {
+        this.minMeetings = Math.max(1, Math.min(min, TimeGrid.MAX_DAYS));
+        this.maxMeetings = Math.max(this.minMeetings, Math.min(max, TimeGrid.MAX_DAYS));
+    }
+    
+    /**
+     * Sets the range of the length of one class, in hours (picked uniformly
+     * for every class, both ends included). Classes are rounded up to whole
+     * timeslots, and never longer than a day of the grid.
+     * @param min
+     * @param max 
+     */
+    public void setDuration(int min, int max) {
+        this.minDuration = Math.max(1, Math.min(min, 24));
+        this.maxDuration = Math.max(this.minDuration, Math.min(max, 24));
+    }
+    
+    /**
+     * Sets the range of the number of seats of each option (picked uniformly,
+     * both ends included), or -1 for unlimited seats.
+     * @param min
+     * @param max 
+     */
+    public void setCapacity(int min, int max) {
+        this.minCapacity = min;
+        this.maxCapacity = Math.max(min, max);
+    }
+    
+    /**
+     * Sets the target conflict density (0 to 1), or -1 to place every option
+     * at random.
+     * @param d 
+     */
+    public void setDensity(double d) {
+        this.targetDensity = d;
+    }
+    
+    /**
+     * Returns the conflict density of the last generated collection.
+     * @return 
+     */
+    public double getDensity() {
+        return density;
+    }
+    
+    /**
+     * Generates a new collection with the current settings.
+     * @return 
+     */
+    public UserCollection generate() {
+        UserCollection u = generateTimes();
+        // Seats are drawn from their own generator, so that they don't change
+        // the class times generated from the same seed
+        if (minCapacity >= 0) {
+            Random rnd = new Random(~seed);
+            for (Course c : u.getCourses()) {
+                for (Week w : c.getWeekOptions()) {
+                    w.setCapacity(minCapacity + rnd.nextInt(maxCapacity - minCapacity + 1));
+                }
+            }
+        }
+        return u;
+    }
+    
+    /**
+     * Generates the class times of a new collection.
+     * @return 
+     */
+    private UserCollection generateTimes() {
+        if (targetDensity < 0) {
+            return generate(0);
+        }
+        // More busy options only ever adds conflicts, so search for the share
+        // which comes closest to the target
+        double low = 0, high = 1;
+        UserCollection best = generate(0);
+        double bestDensity = density;
+        for (int step = 0; step < DENSITY_STEPS; step++) {
+            double mid = (low + high) / 2;
+            UserCollection u = generate(mid);
+            if (Math.abs(density - targetDensity) < Math.abs(bestDensity - targetDensity)) {
+                best = u;
+                bestDensity = density;
+            }
+            if (density < targetDensity) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        density = bestDensity;
+        return best;
+    }
+    
+    /**
+     * Generates a collection in which each option is placed in the busy block
+     * with the provided probability, and measures its conflict density.
+     * @param busy
+     * @return 
+     */
+    private UserCollection generate(double busy) {
+        Random rnd = new Random(seed);
+        UserCollection u = new UserCollection();
+        u.setGrid(grid);
+        int days = grid.getDays(), slots = grid.getSlotsPerDay();
+        int minM = Math.min(minMeetings, days), maxM = Math.min(maxMeetings, days);
+        int minD = Math.min(toSlots(minDuration), slots), maxD = Math.min(toSlots(maxDuration), slots);
+        for (int c = 0; c < courses; c++) {
+            Course course = new Course();
+            course.setName("Course " + (c + 1));
+            for (int o = 0; o < options; o++) {
+                Week w = new Week(grid);
+                w.setName("Week " + (o + 1));
+                int meetings = minM + rnd.nextInt(maxM - minM + 1);
+                // Always draw the same numbers, so that changing 'busy' only
+                // moves options in or out of the busy block: the random days
+                // are drawn against their own mask whether or not the option
+                // ends up in the block
+                boolean inBusy = rnd.nextDouble() < busy;
+                int drawnDays = 0;
+                for (int m = 0; m < meetings; m++) {
+                    int duration = minD + rnd.nextInt(maxD - minD + 1);
+                    int day = rnd.nextInt(days);
+                    while ((drawnDays & (1 << day)) != 0) {
+                        day = rnd.nextInt(days);
+                    }
+                    drawnDays |= 1 << day;
+                    int start = rnd.nextInt(slots - duration + 1);
+                    if (inBusy) {
+                        day = m;
+                        start = (slots - duration) / 2;
+                    }
+                    for (int h = start; h < start + duration; h++) {
+                        w.setOne(day, h, 1);
+                    }
+                }
+                course.addOption(w);
+            }
+            u.addCourse(course);
+        }
+        density = measureDensity(u);
+        return u;
+    }
+    
+    /**
+     * Returns the number of timeslots of the grid a class of 'hours' hours
+     * takes, rounded up.
+     * @param hours
+     * @return 
+     */
+    private int toSlots(int hours) {
+        return (hours * 60 + grid.getMinutesPerSlot() - 1) / grid.getMinutesPerSlot();
+    }
+    
+    /**
+     * Returns the fraction of pairs of options from different courses which
+     * conflict. Small collections are measured exactly, large ones by
+     * sampling DENSITY_SAMPLES pairs.
+     * @param u
+     * @return 
+     */
+    private double measureDensity(UserCollection u) {
+        ArrayList<long[]> slots = new ArrayList<>();
+        ArrayList<Integer> owner = new ArrayList<>();
+        for (int c = 0; c < u.getCourses().size(); c++) {
+            for (Week w : u.getCourses().get(c).getWeekOptions()) {
+                slots.add(w.getSlots());
+                owner.add(c);
+            }
+        }
+        int n = slots.size();
+        long pairs = 0, conflicts = 0;
+        if ((long)n * n / 2 <= DENSITY_SAMPLES) {
+            for (int a = 0; a < n; a++) {
+                for (int b = a + 1; b < n; b++) {
+                    if (!owner.get(a).equals(owner.get(b))) {
+                        pairs++;
+                        if (Week.conflicts(slots.get(a), slots.get(b))) {
+                            conflicts++;
+                        }
+                    }
+                }
+            }
+        } else {
+            Random rnd = new Random(seed);
+            for (int i = 0; i < DENSITY_SAMPLES; i++) {
+                int a = rnd.nextInt(n), b = rnd.nextInt(n);
+                if (!owner.get(a).equals(owner.get(b))) {
+                    pairs++;
+                    if (Week.conflicts(slots.get(a), slots.get(b))) {
+                        conflicts++;
+                    }
+                }
+            }
+        }
+        return pairs == 0 ? 0 : (double)conflicts / pairs;
+    }
+    
+    public static void main(String[] args) {
+        WorkloadGenerator g = new WorkloadGenerator();
+        String out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seed": g.setSeed(Long.parseLong(args[++i])); break;
+                    case "--courses": g.setCourses(Integer.parseInt(args[++i])); break;
+                    case "--options": g.setOptions(Integer.parseInt(args[++i])); break;
+                    case "--meetings": {
+                        int[] r = parseRange(args[++i]);
+                        g.setMeetings(r[0], r[1]);
+                        break;
+                    }
+                    case "--duration": {
+                        int[] r = parseRange(args[++i]);
+                        g.setDuration(r[0], r[1]);
+                        break;
+                    }
+                    case "--density": g.setDensity(Double.parseDouble(args[++i])); break;
+                    case "--capacity": {
+                        int[] r = parseRange(args[++i]);
+                        g.setCapacity(r[0], r[1]);
+                        break;
+                    }
+                    case "--grid": g.setGrid(TimeGrid.parse(args[++i])); break;
+                    default:
+                        if (args[i].startsWith("--") || out != null) {
+                            throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                        }
+                        out = args[i];
+                }
+            }
+            if (out == null) {
+                throw new IllegalArgumentException("No output file given");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: WorkloadGenerator [--seed N] [--courses N] [--options N]"
+                    + " [--meetings MIN-MAX] [--duration MIN-MAX] [--density D] [--capacity MIN-MAX] [--grid DAYS,MINUTES,START-END] out.sch");
+            System.exit(2);
+        }
+        try {
+            ScheduleFile.save(g.generate(), Paths.get(out));
+            System.out.printf("Wrote %s (conflict density %.3f)%n", out, g.getDensity());
+        } catch (IOException e) {
+            System.err.println("Error writing " + out + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Parses "MIN-MAX" (or a single number, for both ends).
+     * @param s
+     * @return 
+     */
+    private static int[] parseRange(String s) {
+        String[] parts = s.split("-");
+        int min = Integer.parseInt(parts[0].trim());
+        int max = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : min;
+        return new int[] {min, max};
+    }
+}